@@ -18,17 +18,39 @@ package eus.ixa.ixa.pipe.cli;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.StringReader;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
+import eus.ixa.ixa.pipe.ml.tok.Token;
 import eus.ixa.ixa.pipe.tok.Annotate;
+import eus.ixa.ixa.pipe.tok.CorpusRun;
+import eus.ixa.ixa.pipe.tok.Follower;
+import eus.ixa.ixa.pipe.tok.Manifest;
+import eus.ixa.ixa.pipe.tok.Pipeline;
 import eus.ixa.ixa.pipe.tok.RuleBasedTokenizerServer;
+import eus.ixa.ixa.pipe.tok.SentenceCache;
+import eus.ixa.ixa.pipe.tok.TokenInterner;
+import eus.ixa.ixa.pipe.tok.UnixSockets;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jdom2.JDOMException;
@@ -123,6 +145,14 @@ public class CLI {
     final Boolean inputKafRaw = parameters.getInputRawKaf();
     final Boolean noTok = parameters.getNoTok();
     final Properties properties = parameters.getAnnotateProperties();
+    if (parameters.getFollow() != null) {
+      follow(parameters);
+      return;
+    }
+    if (parameters.getCorpus() != null) {
+      corpus(parameters);
+      return;
+    }
 
     BufferedReader breader = null;
     final BufferedWriter bwriter = new BufferedWriter(
@@ -153,29 +183,275 @@ public class CLI {
         kaf = new KAFDocument(lang, kafVersion);
         breader = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
       }
-      final Annotate annotator = new Annotate(breader, properties);
-      if (outputFormat.equalsIgnoreCase("conll")) {
-        if (parameters.getOffsets()) {
-          bwriter.write(annotator.tokenizeToCoNLL());
-        } else {
-          bwriter.write(annotator.tokenizeToCoNLLOffsets());
+      final int sentenceCacheSize = Integer
+          .parseInt(parameters.getSentenceCache());
+      final SentenceCache sentenceCache = sentenceCacheSize > 0
+          ? new SentenceCache(sentenceCacheSize) : null;
+      final Properties formatProperties = new Properties();
+      formatProperties.setProperty("outputFormat", outputFormat);
+      if (parameters.getFormats() != null) {
+        formatProperties.setProperty("formats", parameters.getFormats());
+      }
+      final List<String> outputFormats = Annotate
+          .getOutputFormats(formatProperties);
+      final String outputPrefix = parameters.getOutputPrefix();
+      if (Integer.parseInt(parameters.getPipeline()) > 0) {
+        pipeline(breader, kaf, outputFormats, parameters, sentenceCache,
+            bwriter);
+        breader.close();
+        bwriter.close();
+        return;
+      }
+      final Annotate annotator = new Annotate(breader, properties,
+          sentenceCache, getInterner(parameters));
+      if (outputPrefix != null) {
+        // one file per format, all rendered from the same tokens
+        for (final String format : outputFormats) {
+          try (BufferedWriter fileWriter = Files.newBufferedWriter(
+              Paths.get(outputPrefix + CorpusRun.getExtension(format)),
+              StandardCharsets.UTF_8)) {
+            writeFormat(annotator, kaf, format, parameters, fileWriter);
+          }
         }
-      } else if (outputFormat.equalsIgnoreCase("oneline")) {
-        bwriter.write(annotator.tokenizeToText());
+      } else if (outputFormats.size() == 1) {
+        writeFormat(annotator, kaf, outputFormats.get(0), parameters, bwriter);
       } else {
-        final KAFDocument.LinguisticProcessor newLp = kaf
-            .addLinguisticProcessor("text", "ixa-pipe-tok-" + lang,
-                VERSION + "-" + COMMIT_SHA);
-        newLp.setBeginTimestamp();
-        annotator.tokenizeToKAF(kaf);
-        newLp.setEndTimestamp();
-        bwriter.write(kaf.toString());
+        final Map<String, String> outputs = new LinkedHashMap<>();
+        for (final String format : outputFormats) {
+          final StringWriter writer = new StringWriter();
+          writeFormat(annotator, kaf, format, parameters, writer);
+          outputs.put(format, writer.toString());
+        }
+        bwriter.write(RuleBasedTokenizerServer.toMultipart(outputs));
       }
       breader.close();
     }
     bwriter.close();
   }
 
+  /**
+   * Render the tokens of the annotator in one output format.
+   * 
+   * @param annotator
+   *          the annotator
+   * @param kaf
+   *          the NAF document, used for the naf format
+   * @param format
+   *          the output format
+   * @param parameters
+   *          the parameters
+   * @param writer
+   *          the writer
+   * @throws IOException
+   *           if io problems
+   */
+  private void writeFormat(final Annotate annotator, final KAFDocument kaf,
+      final String format, final Parameters parameters, final Writer writer)
+      throws IOException {
+    if (format.equals("conll")) {
+      if (parameters.getOffsets()) {
+        annotator.tokenizeToCoNLL(writer);
+      } else {
+        annotator.tokenizeToCoNLLOffsets(writer);
+      }
+    } else if (format.equals("oneline")) {
+      annotator.tokenizeToText(writer);
+    } else {
+      final KAFDocument.LinguisticProcessor newLp = kaf.addLinguisticProcessor(
+          "text", "ixa-pipe-tok-" + parameters.getLanguage(),
+          VERSION + "-" + COMMIT_SHA);
+      newLp.setBeginTimestamp();
+      annotator.tokenizeToKAF(kaf);
+      newLp.setEndTimestamp();
+      writer.write(kaf.toString());
+    }
+  }
+
+  /**
+   * Tokenize with the {@link Pipeline}. A single conll or oneline output to
+   * standard output is written while the document is tokenized; otherwise the
+   * tokens are collected and every format is rendered from them.
+   * 
+   * @param breader
+   *          the reader of the document
+   * @param kaf
+   *          the NAF document, used for the naf format
+   * @param outputFormats
+   *          the output formats
+   * @param parameters
+   *          the parameters
+   * @param sentenceCache
+   *          the sentence cache, or null
+   * @param writer
+   *          the standard output writer
+   * @throws IOException
+   *           if io problems
+   */
+  private void pipeline(final BufferedReader breader, final KAFDocument kaf,
+      final List<String> outputFormats, final Parameters parameters,
+      final SentenceCache sentenceCache, final Writer writer)
+      throws IOException {
+    final String outputPrefix = parameters.getOutputPrefix();
+    try (Pipeline pipeline = new Pipeline(parameters.getAnnotateProperties(),
+        sentenceCache, getInterner(parameters))) {
+      if (outputPrefix == null && outputFormats.size() == 1
+          && !outputFormats.get(0).equals("naf")) {
+        if (outputFormats.get(0).equals("conll")) {
+          pipeline.tokenizeToCoNLL(breader, !parameters.getOffsets(), writer);
+        } else {
+          pipeline.tokenizeToText(breader, writer);
+        }
+        return;
+      }
+      final List<List<Token>> tokens = pipeline.tokenize(breader);
+      if (outputPrefix != null) {
+        for (final String format : outputFormats) {
+          try (BufferedWriter fileWriter = Files.newBufferedWriter(
+              Paths.get(outputPrefix + CorpusRun.getExtension(format)),
+              StandardCharsets.UTF_8)) {
+            writeFormat(tokens, kaf, format, parameters, fileWriter);
+          }
+        }
+      } else if (outputFormats.size() == 1) {
+        writeFormat(tokens, kaf, outputFormats.get(0), parameters, writer);
+      } else {
+        final Map<String, String> outputs = new LinkedHashMap<>();
+        for (final String format : outputFormats) {
+          final StringWriter formatWriter = new StringWriter();
+          writeFormat(tokens, kaf, format, parameters, formatWriter);
+          outputs.put(format, formatWriter.toString());
+        }
+        writer.write(RuleBasedTokenizerServer.toMultipart(outputs));
+      }
+    }
+  }
+
+  /**
+   * Render already tokenized sentences in one output format.
+   */
+  private void writeFormat(final List<List<Token>> tokens,
+      final KAFDocument kaf, final String format, final Parameters parameters,
+      final Writer writer) throws IOException {
+    if (format.equals("conll")) {
+      Annotate.tokensToCoNLL(tokens, !parameters.getOffsets(), writer);
+    } else if (format.equals("oneline")) {
+      Annotate.tokensToText(tokens, parameters.getNoSeg(), writer);
+    } else {
+      final KAFDocument.LinguisticProcessor newLp = kaf.addLinguisticProcessor(
+          "text", "ixa-pipe-tok-" + parameters.getLanguage(),
+          VERSION + "-" + COMMIT_SHA);
+      newLp.setBeginTimestamp();
+      Annotate.tokensToKAF(tokens, kaf);
+      newLp.setEndTimestamp();
+      writer.write(kaf.toString());
+    }
+  }
+
+  private static TokenInterner getInterner(final Parameters parameters) {
+    final int internSize = Integer.parseInt(parameters.getIntern());
+    return internSize > 0 ? new TokenInterner(internSize) : null;
+  }
+
+  /**
+   * Tokenize every file of a corpus not recorded as done in the manifest.
+   * 
+   * @param parameters
+   *          the parameters
+   * @throws IOException
+   *           if io problems
+   */
+  private void corpus(final Parameters parameters) throws IOException {
+    if (parameters.getNoTok()) {
+      LOG.error("ERROR: notok is not supported for corpus runs!");
+      System.exit(1);
+    }
+    final Properties properties = parameters.getAnnotateProperties();
+    final Properties formatProperties = new Properties();
+    formatProperties.setProperty("outputFormat", parameters.getOutputFormat());
+    if (parameters.getFormats() != null) {
+      formatProperties.setProperty("formats", parameters.getFormats());
+    }
+    final List<String> outputFormats = Annotate
+        .getOutputFormats(formatProperties);
+    // every option changing the output is part of the hash
+    final Properties hashProperties = new Properties();
+    hashProperties.putAll(properties);
+    hashProperties.putAll(formatProperties);
+    hashProperties.setProperty("offsets",
+        String.valueOf(parameters.getOffsets()));
+    hashProperties.setProperty("inputkaf",
+        String.valueOf(parameters.getInputRawKaf()));
+    hashProperties.setProperty("kafversion", parameters.getKafVersion());
+
+    final Path corpus = Paths.get(parameters.getCorpus());
+    final Path outputDir = Paths.get(parameters.getCorpusOutput());
+    Files.createDirectories(outputDir);
+    final Path manifestFile = parameters.getManifest() != null
+        ? Paths.get(parameters.getManifest())
+        : outputDir.resolve("ixa-pipe-tok.manifest");
+    final int sentenceCacheSize = Integer
+        .parseInt(parameters.getSentenceCache());
+    final SentenceCache sentenceCache = sentenceCacheSize > 0
+        ? new SentenceCache(sentenceCacheSize) : null;
+    final TokenInterner interner = getInterner(parameters);
+    try (Manifest manifest = new Manifest(manifestFile)) {
+      final CorpusRun run = new CorpusRun(outputDir, outputFormats, manifest,
+          Manifest.hash(hashProperties));
+      run.run(corpus, (input, outputs) -> {
+        try (BufferedReader reader = Files.newBufferedReader(input,
+            StandardCharsets.UTF_8)) {
+          BufferedReader breader = reader;
+          KAFDocument kaf;
+          if (parameters.getInputRawKaf()) {
+            kaf = KAFDocument.createFromStream(reader);
+            breader = new BufferedReader(new StringReader(kaf.getRawText()));
+          } else {
+            kaf = new KAFDocument(parameters.getLanguage(),
+                parameters.getKafVersion());
+          }
+          final Annotate annotator = new Annotate(breader, properties,
+              sentenceCache, interner);
+          for (final Map.Entry<String, Writer> output : outputs.entrySet()) {
+            writeFormat(annotator, kaf, output.getKey(), parameters,
+                output.getValue());
+          }
+        } catch (final JDOMException e) {
+          throw new IOException("Not a NAF document: " + input, e);
+        }
+      });
+    }
+  }
+
+  /**
+   * Follow a growing file or directory until the process is stopped.
+   * 
+   * @param parameters
+   *          the parameters
+   * @throws IOException
+   *           if io problems
+   */
+  private void follow(final Parameters parameters) throws IOException {
+    final Properties properties = parameters.getAnnotateProperties();
+    properties.setProperty("outputFormat", parameters.getOutputFormat());
+    properties.setProperty("offsets", String.valueOf(!parameters.getOffsets()));
+    properties.setProperty("followInterval", parameters.getFollowInterval());
+    if (parameters.getNoTok() || parameters.getInputRawKaf()
+        || parameters.getFormats() != null
+        || parameters.getOutputFormat().equals("naf")) {
+      LOG.error(
+          "ERROR: follow only supports plain text input and conll or oneline output!");
+      System.exit(1);
+    }
+    final Path outputDir = Paths.get(parameters.getFollowOutput());
+    Files.createDirectories(outputDir);
+    try (Follower follower = new Follower(Paths.get(parameters.getFollow()),
+        outputDir, properties)) {
+      follower.follow();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   /**
    * Set up the TCP socket for annotation.
    * 
@@ -194,15 +470,17 @@ public class CLI {
   public final void client(Parameters parameters) {
     String host = parameters.getHost();
     String port = parameters.getPort();
-    try (Socket socketClient = new Socket(host, Integer.parseInt(port));
+    String socket = parameters.getSocket();
+    try (Closeable socketClient = socket != null ? UnixSockets.connect(socket)
+        : new Socket(host, Integer.parseInt(port));
         BufferedReader inFromUser = new BufferedReader(
             new InputStreamReader(System.in, "UTF-8"));
         BufferedWriter outToUser = new BufferedWriter(
             new OutputStreamWriter(System.out, "UTF-8"));
         BufferedWriter outToServer = new BufferedWriter(
-            new OutputStreamWriter(socketClient.getOutputStream(), "UTF-8"));
+            new OutputStreamWriter(getOutputStream(socketClient), "UTF-8"));
         BufferedReader inFromServer = new BufferedReader(
-            new InputStreamReader(socketClient.getInputStream(), "UTF-8"));) {
+            new InputStreamReader(getInputStream(socketClient), "UTF-8"));) {
 
       // send data to server socket
       StringBuilder inText = new StringBuilder();
@@ -230,8 +508,23 @@ public class CLI {
     } catch (NumberFormatException e) {
       LOG.error("Port number not correct!");
       System.exit(1);
+    } catch (UnsupportedOperationException e) {
+      LOG.error("ERROR: {}", e.getMessage());
+      System.exit(1);
     } catch (IOException e) {
       LOG.error("Exception", e);
     }
   }
+
+  private static InputStream getInputStream(final Closeable socket)
+      throws IOException {
+    return socket instanceof Socket ? ((Socket) socket).getInputStream()
+        : Channels.newInputStream((SocketChannel) socket);
+  }
+
+  private static OutputStream getOutputStream(final Closeable socket)
+      throws IOException {
+    return socket instanceof Socket ? ((Socket) socket).getOutputStream()
+        : Channels.newOutputStream((SocketChannel) socket);
+  }
 }
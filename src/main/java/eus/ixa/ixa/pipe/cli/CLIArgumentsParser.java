@@ -91,17 +91,48 @@ public class CLIArgumentsParser {
         .required(false).help("Do not segment paragraphs. Ever.\n");
     result.addArgument("--kafversion").setDefault("v1.naf")
         .help("Set kaf document version.\n");
+    result.addArgument("--sentenceCache").setDefault("0").help(
+        "Reuse the tokens of up to this many repeated sentences; 0 disables the cache.\n");
+    result.addArgument("--intern").setDefault("0").help(
+        "Share frequent token forms through a table of this many slots; 0 disables interning.\n");
+    result.addArgument("--backend").help(
+        "Tokenizer backends to try in order, comma separated (rule, fast); the first supporting the language is used. It defaults to rule.\n");
+    result.addArgument("--formats").nargs("+")
+        .choices("conll", "oneline", "naf").help(
+            "Tokenize once and output every one of these formats instead of outputFormat.\n");
+    result.addArgument("--outputPrefix").help(
+        "Write each format to this prefix plus .naf, .conll or .txt instead of standard output.\n");
+    result.addArgument("--pipeline").setDefault("0").help(
+        "Tokenize with this many threads while segmenting and writing; 0 disables the pipeline.\n");
+    result.addArgument("--pipelineQueue").setDefault("16").help(
+        "Maximum number of sentence batches waiting to be written in the pipeline.\n");
+    result.addArgument("--follow").help(
+        "Follow this growing file, or every file of this directory, and tokenize its new paragraphs.\n");
+    result.addArgument("--followOutput").setDefault(".").help(
+        "Directory where the output and checkpoint of each followed file are written.\n");
+    result.addArgument("--followInterval").setDefault("1").help(
+        "Seconds between checks of the followed files when no change is notified.\n");
+    result.addArgument("--corpus").help(
+        "Tokenize this file or every file of this directory, skipping those already done.\n");
+    result.addArgument("--corpusOutput").setDefault(".").help(
+        "Directory where the output of each corpus file is written.\n");
+    result.addArgument("--manifest").help(
+        "Manifest of the corpus files done; it defaults to ixa-pipe-tok.manifest in corpusOutput.\n");
     return result;
   }
 
   private Subparser createServerArgumentsParser(Subparsers subParsers) {
     Subparser result = subParsers.addParser("server")
         .help("Start TCP socket server");
-    result.addArgument("-p", "--port").required(true)
+    MutuallyExclusiveGroup endpoint = result.addMutuallyExclusiveGroup()
+        .required(true);
+    endpoint.addArgument("-p", "--port")
         .help("Port to be assigned to the server.\n");
+    endpoint.addArgument("--socket").help(
+        "Listen on this Unix domain socket path instead of a port (Java 16+).\n");
     // specify language (for language dependent treatment of apostrophes)
     result.addArgument("-l", "--lang")
-        .choices("ca" ,"de", "en", "es", "eu", "fr", "gl", "it", "nl").required(true)
+        .choices("ca" ,"de", "en", "es", "eu", "fr", "gl", "it", "nl", "ru").required(true)
         .help(
             "It is REQUIRED to choose a language to perform annotation with ixa-pipe-tok.\n");
     result.addArgument("-n", "--normalize")
@@ -126,6 +157,41 @@ public class CLIArgumentsParser {
         .required(false).help("Do not segment paragraphs. Ever.\n");
     result.addArgument("--kafversion").setDefault("v1.naf")
         .help("Set kaf document version.\n");
+    result.addArgument("--warmup").action(Arguments.storeTrue()).help(
+        "Run a bundled corpus through the tokenizer before opening the port.\n");
+    result.addArgument("--warmupTime").setDefault("60").help(
+        "Maximum number of seconds to spend warming up; it defaults to 60.\n");
+    result.addArgument("--cacheSize").setDefault("0").help(
+        "Cache up to this many MB of results for repeated documents; 0 disables the cache.\n");
+    result.addArgument("--sentenceCache").setDefault("0").help(
+        "Reuse the tokens of up to this many repeated sentences; 0 disables the cache.\n");
+    result.addArgument("--intern").setDefault("0").help(
+        "Share frequent token forms of all requests through a table of this many slots; 0 disables interning.\n");
+    result.addArgument("--backend").help(
+        "Tokenizer backends to try in order, comma separated (rule, fast); the first supporting the language is used. It defaults to rule.\n");
+    result.addArgument("--formats").nargs("+")
+        .choices("conll", "oneline", "naf").help(
+            "Tokenize once and answer with a multipart document of these formats.\n");
+    result.addArgument("--slowLog").help(
+        "Write a sample of every document slower than slowThreshold to this directory.\n");
+    result.addArgument("--slowThreshold").setDefault("1000").help(
+        "Milliseconds above which a document is logged as slow; it defaults to 1000.\n");
+    result.addArgument("--slowSampleSize").setDefault("65536").help(
+        "Maximum number of characters logged of each slow document; it defaults to 65536.\n");
+    result.addArgument("--batchWindow").setDefault("0").help(
+        "Collect small requests for up to this many milliseconds and tokenize them together; 0 disables batching.\n");
+    result.addArgument("--batchSize").setDefault("64").help(
+        "Maximum number of requests tokenized together; it defaults to 64.\n");
+    result.addArgument("--batchMaxLength").setDefault("1024").help(
+        "Maximum number of characters of a request to be batched; it defaults to 1024.\n");
+    result.addArgument("--threads").setDefault("0").help(
+        "Answer requests with this many threads, at least 2, shared fairly between connections; 0 answers one request at a time.\n");
+    result.addArgument("--fastLaneMaxLength").setDefault("16384").help(
+        "Maximum number of characters of a request in the fast lane; it defaults to 16384.\n");
+    result.addArgument("--reusePort").action(Arguments.storeTrue()).help(
+        "Bind the port with SO_REUSEPORT so that several servers share it.\n");
+    result.addArgument("--drainTimeout").setDefault("30").help(
+        "Seconds to wait on shutdown for accepted requests to be answered; it defaults to 30.\n");
 
     return result;
   }
@@ -134,8 +200,12 @@ public class CLIArgumentsParser {
     Subparser result = subParsers.addParser("client")
         .help("Send queries to the TCP socket server");
 
-    result.addArgument("-p", "--port").required(true)
+    MutuallyExclusiveGroup endpoint = result.addMutuallyExclusiveGroup()
+        .required(true);
+    endpoint.addArgument("-p", "--port")
         .help("Port of the TCP server.\n");
+    endpoint.addArgument("--socket")
+        .help("Unix domain socket path of the server (Java 16+).\n");
     result.addArgument("--host").required(false).setDefault("localhost")
         .help("Hostname or IP where the TCP server is running.\n");
 
@@ -2,6 +2,7 @@ package eus.ixa.ixa.pipe.cli;
 
 import net.sourceforge.argparse4j.inf.Namespace;
 
+import java.util.List;
 import java.util.Properties;
 
 public class Parameters {
@@ -72,10 +73,119 @@ public class Parameters {
     return namespace.getString("port");
   }
 
+  public String getSocket() {
+    return namespace.getString("socket");
+  }
+
   public String getHost() {
     return namespace.getString("host");
   }
 
+  public boolean getWarmup() {
+    return namespace.getBoolean("warmup");
+  }
+
+  public String getWarmupTime() {
+    return namespace.getString("warmupTime");
+  }
+
+  public String getCacheSize() {
+    return namespace.getString("cacheSize");
+  }
+
+  public String getSentenceCache() {
+    return namespace.getString("sentenceCache");
+  }
+
+  public String getIntern() {
+    return namespace.getString("intern");
+  }
+
+  public String getBackend() {
+    return namespace.getString("backend");
+  }
+
+  public String getFormats() {
+    final List<String> formats = namespace.getList("formats");
+    return formats == null ? null : String.join(",", formats);
+  }
+
+  public String getOutputPrefix() {
+    return namespace.getString("outputPrefix");
+  }
+
+  public String getPipeline() {
+    return namespace.getString("pipeline");
+  }
+
+  public String getPipelineQueue() {
+    return namespace.getString("pipelineQueue");
+  }
+
+  public String getFollow() {
+    return namespace.getString("follow");
+  }
+
+  public String getFollowOutput() {
+    return namespace.getString("followOutput");
+  }
+
+  public String getFollowInterval() {
+    return namespace.getString("followInterval");
+  }
+
+  public String getCorpus() {
+    return namespace.getString("corpus");
+  }
+
+  public String getCorpusOutput() {
+    return namespace.getString("corpusOutput");
+  }
+
+  public String getManifest() {
+    return namespace.getString("manifest");
+  }
+
+  public String getBatchWindow() {
+    return namespace.getString("batchWindow");
+  }
+
+  public String getBatchSize() {
+    return namespace.getString("batchSize");
+  }
+
+  public String getBatchMaxLength() {
+    return namespace.getString("batchMaxLength");
+  }
+
+  public String getThreads() {
+    return namespace.getString("threads");
+  }
+
+  public String getFastLaneMaxLength() {
+    return namespace.getString("fastLaneMaxLength");
+  }
+
+  public boolean getReusePort() {
+    return namespace.getBoolean("reusePort");
+  }
+
+  public String getDrainTimeout() {
+    return namespace.getString("drainTimeout");
+  }
+
+  public String getSlowLog() {
+    return namespace.getString("slowLog");
+  }
+
+  public String getSlowThreshold() {
+    return namespace.getString("slowThreshold");
+  }
+
+  public String getSlowSampleSize() {
+    return namespace.getString("slowSampleSize");
+  }
+
   public Properties getAnnotateProperties() {
     Properties annotateProperties = new Properties();
     annotateProperties.setProperty("language", getLanguage());
@@ -83,13 +193,22 @@ public class Parameters {
     annotateProperties.setProperty("untokenizable", getUntokenizable());
     annotateProperties.setProperty("hardParagraph", getHardParagraph());
     annotateProperties.setProperty("noseg", String.valueOf(getNoSeg()));
+    annotateProperties.setProperty("pipeline", getPipeline());
+    annotateProperties.setProperty("pipelineQueue", getPipelineQueue());
+    if (getBackend() != null) {
+      annotateProperties.setProperty("backend", getBackend());
+    }
 
     return annotateProperties;
   }
 
   public Properties getServerProperties() {
     final Properties serverProperties = new Properties();
-    serverProperties.setProperty("port", getPort());
+    if (getSocket() != null) {
+      serverProperties.setProperty("socket", getSocket());
+    } else {
+      serverProperties.setProperty("port", getPort());
+    }
     serverProperties.setProperty("language", getLanguage());
     serverProperties.setProperty("normalize", getNormalize());
     serverProperties.setProperty("untokenizable", getUntokenizable());
@@ -99,6 +218,29 @@ public class Parameters {
     serverProperties.setProperty("outputFormat", getOutputFormat());
     serverProperties.setProperty("offsets", String.valueOf(getOffsets()));
     serverProperties.setProperty("hardParagraph", getHardParagraph());
+    serverProperties.setProperty("warmup", String.valueOf(getWarmup()));
+    serverProperties.setProperty("warmupTime", getWarmupTime());
+    serverProperties.setProperty("cacheSize", getCacheSize());
+    serverProperties.setProperty("sentenceCache", getSentenceCache());
+    serverProperties.setProperty("intern", getIntern());
+    if (getBackend() != null) {
+      serverProperties.setProperty("backend", getBackend());
+    }
+    if (getFormats() != null) {
+      serverProperties.setProperty("formats", getFormats());
+    }
+    if (getSlowLog() != null) {
+      serverProperties.setProperty("slowLog", getSlowLog());
+    }
+    serverProperties.setProperty("slowThreshold", getSlowThreshold());
+    serverProperties.setProperty("slowSampleSize", getSlowSampleSize());
+    serverProperties.setProperty("batchWindow", getBatchWindow());
+    serverProperties.setProperty("batchSize", getBatchSize());
+    serverProperties.setProperty("batchMaxLength", getBatchMaxLength());
+    serverProperties.setProperty("threads", getThreads());
+    serverProperties.setProperty("fastLaneMaxLength", getFastLaneMaxLength());
+    serverProperties.setProperty("reusePort", String.valueOf(getReusePort()));
+    serverProperties.setProperty("drainTimeout", getDrainTimeout());
 
     return serverProperties;
   }
@@ -22,8 +22,15 @@ import ixa.kaflib.WF;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import com.google.common.io.CharStreams;
@@ -31,7 +38,7 @@ import com.google.common.io.CharStreams;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import eus.ixa.ixa.pipe.ml.tok.RuleBasedSegmenter;
-import eus.ixa.ixa.pipe.ml.tok.RuleBasedTokenizer;
+import eus.ixa.ixa.pipe.ml.tok.SentenceSegmenter;
 import eus.ixa.ixa.pipe.ml.tok.Token;
 import eus.ixa.ixa.pipe.ml.tok.Tokenizer;
 
@@ -44,7 +51,14 @@ import eus.ixa.ixa.pipe.ml.tok.Tokenizer;
  * <li>CoNLL format, namely, one token per line and two newlines for each
  * sentence.
  * </ol>
- * All these options are configurable by using the parameters of the CLI.
+ * All these options are configurable by using the parameters of the CLI. If a
+ * {@link SentenceCache} is given, sentences already tokenized are taken from
+ * the cache and only the new ones go through the tokenizer. Every document
+ * emits Flight Recorder events for the whole document and for segmentation,
+ * tokenization and rendering.
+ * Many small documents are tokenized together, with one tokenizer, by
+ * {@link #tokenize(List)}. The segmenter and the tokenizer are built by the
+ * {@link TokenizerBackend} chosen by the backend option.
  * 
  * @author ragerri
  * @version 2016-04-20
@@ -54,19 +68,61 @@ public class Annotate {
   private static String DELIMITER = " ";
   private static String LINE_BREAK = "\n";
   private static String DEFAULT_TOKEN_VALUE = "*<P>*";
+  private static String PARAGRAPH_BREAK = "\n\n";
 
   private static final Logger LOG = LogManager.getLogger(Annotate.class);
+  /**
+   * The output formats: NAF, CoNLL and one sentence per line.
+   */
+  public static final List<String> OUTPUT_FORMATS = Collections
+      .unmodifiableList(Arrays.asList("naf", "conll", "oneline"));
 
   /**
-   * The tokenizer.
+   * The tokenizer, built the first time the text is tokenized on its own.
    */
-  private final Tokenizer tokenizer;
+  private Tokenizer tokenizer;
   /**
    * The sentence splitter.
    */
-  private final RuleBasedSegmenter segmenter;
+  private final SentenceSegmenter segmenter;
+  /**
+   * The backend building the segmenter and the tokenizer.
+   */
+  private final TokenizerBackend backend;
   private List<String> text;
   private boolean isNoSeg;
+  private final Properties properties;
+  /**
+   * The text as seen by the tokenizer.
+   */
+  private final String originalText;
+  /**
+   * The sentence cache, null if sentences are not cached.
+   */
+  private final SentenceCache sentenceCache;
+  /**
+   * The token interner, null if token forms are not interned.
+   */
+  private final TokenInterner interner;
+  /**
+   * The language, as reported by the Flight Recorder events.
+   */
+  private final String language;
+  /**
+   * The number of characters of the input.
+   */
+  private final long inputSize;
+  /**
+   * The tokens of each sentence, once the text is tokenized.
+   */
+  private List<List<Token>> tokens;
+
+  /**
+   * Renders the tokens of a document.
+   */
+  private interface Renderer {
+    void render(List<List<Token>> tokens) throws IOException;
+  }
 
   /**
    * Build an annotator from the reader and the properties object.
@@ -77,13 +133,85 @@ public class Annotate {
    *          the properties
    */
   public Annotate(final BufferedReader breader, final Properties properties) {
+    this(breader, properties, null);
+  }
+
+  /**
+   * Build an annotator from the reader and the properties object which
+   * takes the tokens of already seen sentences from a cache.
+   * 
+   * @param breader
+   *          the reader
+   * @param properties
+   *          the properties
+   * @param sentenceCache
+   *          the sentence cache, or null to tokenize every sentence
+   */
+  public Annotate(final BufferedReader breader, final Properties properties,
+      final SentenceCache sentenceCache) {
+    this(breader, properties, sentenceCache, null);
+  }
+
+  /**
+   * Build an annotator from the reader and the properties object which
+   * takes the tokens of already seen sentences from a cache and shares the
+   * token forms through an interner.
+   * 
+   * @param breader
+   *          the reader
+   * @param properties
+   *          the properties
+   * @param sentenceCache
+   *          the sentence cache, or null to tokenize every sentence
+   * @param interner
+   *          the token interner, or null to keep the forms of the tokenizer
+   */
+  public Annotate(final BufferedReader breader, final Properties properties,
+      final SentenceCache sentenceCache, final TokenInterner interner) {
+    this.properties = properties;
+    this.sentenceCache = sentenceCache;
+    this.interner = interner;
+    this.language = properties.getProperty("language");
+    this.backend = TokenizerBackends.get(properties);
     isNoSeg = Boolean.valueOf(properties.getProperty("noseg"));
+    long noSegSize = 0;
     if (isNoSeg) {
       text = buildSegmentedSentences(breader);
+      for (final String line : text) {
+        noSegSize += line.length() + 1;
+      }
     }
     String textSegment = RuleBasedSegmenter.readText(breader);
-    segmenter = new RuleBasedSegmenter(textSegment, properties);
-    tokenizer = new RuleBasedTokenizer(textSegment, properties);
+    originalText = textSegment;
+    inputSize = isNoSeg ? noSegSize : textSegment.length();
+    segmenter = backend.newSegmenter(textSegment, properties);
+  }
+
+  /**
+   * Get the output formats requested: the comma separated list of the formats
+   * property if given, the outputFormat property otherwise.
+   * 
+   * @param properties
+   *          the properties
+   * @return the output formats, without repetitions
+   * @throws IllegalArgumentException
+   *           if a format is not known
+   */
+  public static List<String> getOutputFormats(final Properties properties) {
+    final String formats = properties.getProperty("formats",
+        properties.getProperty("outputFormat", "naf"));
+    final List<String> outputFormats = new ArrayList<>();
+    for (final String format : formats.split(",")) {
+      final String outputFormat = format.trim().toLowerCase();
+      if (!OUTPUT_FORMATS.contains(outputFormat)) {
+        throw new IllegalArgumentException("Unknown output format "
+            + outputFormat + "; choose among " + OUTPUT_FORMATS);
+      }
+      if (!outputFormats.contains(outputFormat)) {
+        outputFormats.add(outputFormat);
+      }
+    }
+    return outputFormats;
   }
 
   /**
@@ -107,6 +235,356 @@ public class Annotate {
     return sentences;
   }
 
+  /**
+   * Tokenize the sentences, taking the tokens of the sentences already seen
+   * from the sentence cache.
+   * 
+   * @param sentences
+   *          the sentences
+   * @return the tokens of each sentence
+   */
+  private List<List<Token>> tokenize(final String[] sentences) {
+    final StageEvent event = Tracing.beginStage();
+    final List<List<Token>> tokens = tokenizeSentences(sentences);
+    Tracing.endStage(event, "tokenize", language, inputSize, sentences.length,
+        tokens);
+    return tokens;
+  }
+
+  private List<List<Token>> tokenizeSentences(final String[] sentences) {
+    if (sentenceCache == null) {
+      return tokenizeText(sentences);
+    }
+    final String configuration = SentenceCache.configuration(properties);
+    final List<SentenceCache.Entry> entries = new ArrayList<>(
+        sentences.length);
+    boolean cached = true;
+    for (final String sentence : sentences) {
+      final SentenceCache.Entry entry = sentenceCache.get(configuration,
+          sentence);
+      entries.add(entry);
+      cached &= entry != null;
+    }
+    if (cached) {
+      final List<List<Token>> tokens = place(entries, originalText);
+      if (tokens != null) {
+        return tokens;
+      }
+    }
+    final List<List<Token>> tokens = tokenizeText(sentences);
+    int prevOffset = 0;
+    for (int i = 0; i < sentences.length; i++) {
+      final List<Token> sentenceTokens = tokens.get(i);
+      if (sentenceTokens.isEmpty()) {
+        continue;
+      }
+      if (entries.get(i) == null) {
+        final int sentenceOffset = originalText.indexOf(sentences[i],
+            prevOffset);
+        final SentenceCache.Entry entry = sentenceOffset < 0 ? null
+            : SentenceCache.Entry.of(sentences[i], sentenceTokens,
+                sentenceOffset);
+        if (entry != null) {
+          sentenceCache.put(configuration, sentences[i], entry);
+        }
+      }
+      final Token last = sentenceTokens.get(sentenceTokens.size() - 1);
+      prevOffset = last.startOffset() + last.tokenLength();
+    }
+    return tokens;
+  }
+
+  /**
+   * Tokenize the sentences of the text with one tokenizer.
+   */
+  private List<List<Token>> tokenizeText(final String[] sentences) {
+    if (tokenizer == null) {
+      tokenizer = backend.newTokenizer(originalText, properties);
+    }
+    final List<List<Token>> tokens = tokenizer.tokenize(sentences);
+    if (interner != null) {
+      interner.intern(tokens);
+    }
+    return tokens;
+  }
+
+  /**
+   * Tokenize several documents at once: the sentences of every document go
+   * through one tokenizer, and each sentence only once, instead of building
+   * a tokenizer for each document. This pays off for many small documents,
+   * for which building the tokenizer costs more than tokenizing. The tokens
+   * of each document are the same as if tokenized on its own, as a document
+   * whose tokens cannot be placed in its text is tokenized on its own; all
+   * the annotators must have the same options.
+   * 
+   * @param annotators
+   *          the annotators of the documents
+   */
+  public static void tokenize(final List<Annotate> annotators) {
+    if (annotators.isEmpty()) {
+      return;
+    }
+    final Annotate first = annotators.get(0);
+    final StageEvent event = Tracing.beginStage();
+    final List<String[]> documents = new ArrayList<>(annotators.size());
+    final List<String> sentences = new ArrayList<>();
+    long inputSize = 0;
+    for (final Annotate annotator : annotators) {
+      final String[] documentSentences = annotator.getSentences();
+      documents.add(documentSentences);
+      sentences.addAll(Arrays.asList(documentSentences));
+      inputSize += annotator.inputSize;
+    }
+    final Map<String, SentenceCache.Entry> entries = getEntries(sentences,
+        first.properties, first.sentenceCache, first.interner);
+    final List<List<Token>> tokens = new ArrayList<>(sentences.size());
+    for (int i = 0; i < annotators.size(); i++) {
+      final Annotate annotator = annotators.get(i);
+      final List<SentenceCache.Entry> documentEntries = new ArrayList<>();
+      for (final String sentence : documents.get(i)) {
+        documentEntries.add(entries.get(sentence));
+      }
+      annotator.tokens = place(documentEntries, annotator.originalText);
+      if (annotator.tokens == null) {
+        annotator.tokens = annotator.tokenizeText(documents.get(i));
+      }
+      tokens.addAll(annotator.tokens);
+    }
+    Tracing.endStage(event, "tokenize", first.language, inputSize,
+        sentences.size(), tokens);
+  }
+
+  /**
+   * Get the tokens of every distinct sentence, from the cache if there is
+   * one, tokenizing the sentences not found in it together.
+   * 
+   * @param sentences
+   *          the sentences
+   * @param properties
+   *          the properties
+   * @param sentenceCache
+   *          the sentence cache, or null
+   * @param interner
+   *          the token interner, or null
+   * @return the tokens of each sentence, null for the sentences whose tokens
+   *         cannot be kept apart from the text
+   */
+  private static Map<String, SentenceCache.Entry> getEntries(
+      final List<String> sentences, final Properties properties,
+      final SentenceCache sentenceCache, final TokenInterner interner) {
+    final String configuration = SentenceCache.configuration(properties);
+    final Map<String, SentenceCache.Entry> entries = new HashMap<>();
+    final List<String> misses = new ArrayList<>();
+    for (final String sentence : sentences) {
+      if (!entries.containsKey(sentence)) {
+        final SentenceCache.Entry entry = sentenceCache == null ? null
+            : sentenceCache.get(configuration, sentence);
+        entries.put(sentence, entry);
+        if (entry == null) {
+          misses.add(sentence);
+        }
+      }
+    }
+    final List<SentenceCache.Entry> missEntries = tokenizeEntries(misses,
+        properties);
+    for (final SentenceCache.Entry entry : missEntries) {
+      if (entry == null) {
+        continue;
+      }
+      // placed tokens share the forms of the cached ones
+      if (interner != null) {
+        entry.intern(interner);
+      }
+      entries.put(entry.getSentence(), entry);
+      if (sentenceCache != null) {
+        sentenceCache.put(configuration, entry.getSentence(), entry);
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Tokenize sentences one after the other, so that the offsets of their
+   * tokens are relative to each sentence and do not depend on where the
+   * sentence is in the text.
+   * 
+   * @param sentences
+   *          the sentences
+   * @param properties
+   *          the properties
+   * @return the tokens of each sentence, or null for the sentences whose
+   *         tokens are not the text of the sentence
+   */
+  static List<SentenceCache.Entry> tokenizeEntries(
+      final List<String> sentences, final Properties properties) {
+    final List<SentenceCache.Entry> entries = new ArrayList<>(
+        sentences.size());
+    if (sentences.isEmpty()) {
+      return entries;
+    }
+    final int[] sentenceOffsets = new int[sentences.size()];
+    final StringBuilder text = new StringBuilder();
+    for (int i = 0; i < sentenceOffsets.length; i++) {
+      sentenceOffsets[i] = text.length();
+      text.append(sentences.get(i)).append(LINE_BREAK);
+    }
+    final List<List<Token>> tokens = TokenizerBackends.get(properties)
+        .newTokenizer(text.toString(), properties)
+        .tokenize(sentences.toArray(new String[sentences.size()]));
+    for (int i = 0; i < sentenceOffsets.length; i++) {
+      entries.add(SentenceCache.Entry.of(sentences.get(i), tokens.get(i),
+          sentenceOffsets[i]));
+    }
+    return entries;
+  }
+
+  /**
+   * Place the tokens of the sentences of a text.
+   * 
+   * @param entries
+   *          the tokens of each sentence, or null if not known
+   * @param text
+   *          the text
+   * @return the tokens of each sentence, or null if the tokens of a sentence
+   *         are not known or not found where they belong
+   */
+  private static List<List<Token>> place(
+      final List<SentenceCache.Entry> entries, final String text) {
+    final List<List<Token>> tokens = new ArrayList<>(entries.size());
+    int prevOffset = 0;
+    for (final SentenceCache.Entry entry : entries) {
+      if (entry == null) {
+        return null;
+      }
+      final List<Token> sentenceTokens = new ArrayList<>(entry.size());
+      prevOffset = place(entry, text, prevOffset, sentenceTokens);
+      if (prevOffset < 0) {
+        return null;
+      }
+      tokens.add(sentenceTokens);
+    }
+    return tokens;
+  }
+
+  /**
+   * Place the tokens of a sentence in the text after the previous token.
+   * 
+   * @param entry
+   *          the tokens of the sentence
+   * @param text
+   *          the text
+   * @param prevOffset
+   *          the end offset of the previous token
+   * @param sentenceTokens
+   *          the list to add the tokens to
+   * @return the end offset of the last token, or -1 if a token is not found
+   *         where it belongs
+   */
+  static int place(final SentenceCache.Entry entry, final String text,
+      final int prevOffset, final List<Token> sentenceTokens) {
+    int offset = prevOffset;
+    for (int i = 0; i < entry.size(); i++) {
+      final String value = entry.getValue(i);
+      offset = indexOfToken(text, value, offset);
+      if (offset < 0) {
+        return -1;
+      }
+      sentenceTokens.add(new Token(value, offset, value.length()));
+      offset += value.length();
+    }
+    return offset;
+  }
+
+  /**
+   * Find a token in a text where the tokenizer finds it when the token is
+   * its text: at the first character after the previous token which is not
+   * a whitespace.
+   * 
+   * @param text
+   *          the text
+   * @param token
+   *          the text of the token
+   * @param prevOffset
+   *          the end offset of the previous token
+   * @return the offset of the token, or -1 if it is not there
+   */
+  static int indexOfToken(final String text, final String token,
+      final int prevOffset) {
+    int offset = prevOffset;
+    while (offset < text.length()
+        && Character.isWhitespace(text.charAt(offset))) {
+      offset++;
+    }
+    return text.startsWith(token, offset) ? offset : -1;
+  }
+
+  /**
+   * Segment, unless noseg is chosen, and tokenize the input text. The text is
+   * only tokenized once: later calls, and the tokenizeTo methods, reuse the
+   * same tokens.
+   * 
+   * @return the tokens of each sentence
+   */
+  public List<List<Token>> tokenize() {
+    final DocumentEvent event = Tracing.beginDocument();
+    final List<List<Token>> tokens = getTokens();
+    Tracing.endDocument(event, "annotate", language, "tokens", inputSize,
+        tokens);
+    return tokens;
+  }
+
+  /**
+   * Get the tokens of each sentence, tokenizing the text the first time.
+   * 
+   * @return the tokens of each sentence
+   */
+  private List<List<Token>> getTokens() {
+    if (tokens == null) {
+      tokens = tokenize(getSentences());
+    }
+    return tokens;
+  }
+
+  /**
+   * Get the sentences of the input text: the input lines if noseg is chosen,
+   * the output of the segmenter otherwise.
+   * 
+   * @return the sentences
+   */
+  private String[] getSentences() {
+    if (isNoSeg) {
+      return text.toArray(new String[text.size()]);
+    }
+    final StageEvent event = Tracing.beginStage();
+    final String[] sentences = segmenter.segmentSentence();
+    Tracing.endStage(event, "segment", language, inputSize, sentences.length,
+        null);
+    return sentences;
+  }
+
+  /**
+   * Tokenize the input text, unless already done, and render it, emitting the
+   * Flight Recorder events of the document and of each stage.
+   * 
+   * @param outputFormat
+   *          the name of the output format
+   * @param renderer
+   *          the renderer
+   * @throws IOException
+   *           if io problems
+   */
+  private void annotate(final String outputFormat, final Renderer renderer)
+      throws IOException {
+    final DocumentEvent event = Tracing.beginDocument();
+    final List<List<Token>> tokens = getTokens();
+    final StageEvent renderEvent = Tracing.beginStage();
+    renderer.render(tokens);
+    Tracing.endStage(renderEvent, "render", language, inputSize,
+        tokens.size(), tokens);
+    Tracing.endDocument(event, "annotate", language, outputFormat, inputSize,
+        tokens);
+  }
+
   /**
    * Tokenize document to NAF.
    * 
@@ -116,19 +594,23 @@ public class Annotate {
    *           if io problems
    */
   public void tokenizeToKAF(final KAFDocument kaf) throws IOException {
+    annotate("naf", tokens -> tokensToKAF(tokens, kaf));
+  }
+
+  /**
+   * Add the tokens of each sentence as WF elements to a NAF document.
+   * 
+   * @param tokens
+   *          the tokens of each sentence
+   * @param kaf
+   *          the naf document
+   */
+  public static void tokensToKAF(final List<List<Token>> tokens,
+      final KAFDocument kaf) {
 
     int noSents = 0;
     int noParas = 1;
-    
-    List<List<Token>> tokens;
 
-    if (isNoSeg) {
-      String[] sentences = text.toArray(new String[text.size()]);
-      tokens = tokenizer.tokenize(sentences);
-    } else {
-      final String[] sentences = segmenter.segmentSentence();
-      tokens = tokenizer.tokenize(sentences);
-    }
     for (final List<Token> tokenizedSentence : tokens) {
       noSents = noSents + 1;
       for (final Token token : tokenizedSentence) {
@@ -150,52 +632,62 @@ public class Annotate {
 
   /**
    * Tokenizes and segments input text. Outputs tokenized text in conll format:
-   * one token per sentence and two newlines to divide sentences.
+   * one token per sentence and two newlines to divide sentences. If noseg is
+   * chosen every input line is a sentence.
    * 
    * @return String tokenized text
    */
   public String tokenizeToCoNLL() {
-
-    final StringBuilder sb = new StringBuilder();
-    final String[] sentences = segmenter.segmentSentence();
-    final List<List<Token>> tokens = tokenizer.tokenize(sentences);
-    for (final List<Token> tokSentence : tokens) {
-      for (final Token token : tokSentence) {
-        String tokenValue = token.getTokenValue();
-        if (tokenValue.equals(RuleBasedSegmenter.PARAGRAPH)) {
-          tokenValue = DEFAULT_TOKEN_VALUE;
-        }
-        sb.append(tokenValue.trim()).append(LINE_BREAK);
-      }
-      sb.append(LINE_BREAK);
+    final StringWriter writer = new StringWriter();
+    try {
+      tokenizeToCoNLL(writer);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
     }
-    return sb.toString();
+    return writer.toString();
+  }
+
+  /**
+   * Tokenizes and segments input text and writes it in conll format.
+   * 
+   * @param writer
+   *          the writer
+   * @throws IOException
+   *           if io problems
+   */
+  public void tokenizeToCoNLL(final Writer writer) throws IOException {
+    annotate("conll", tokens -> tokensToCoNLL(tokens, false, writer));
   }
 
   /**
    * Tokenizes and segments input text. Outputs tokenized text in conll format:
    * one token per sentence and two newlines to divide sentences plus offsets
-   * and lenght information about tokens.
+   * and lenght information about tokens. If noseg is chosen every input line
+   * is a sentence.
    * 
    * @return String tokenized text
    */
   public String tokenizeToCoNLLOffsets() {
-
-    final StringBuilder sb = new StringBuilder();
-    final String[] sentences = segmenter.segmentSentence();
-    final List<List<Token>> tokens = tokenizer.tokenize(sentences);
-    for (final List<Token> tokSentence : tokens) {
-      for (final Token token : tokSentence) {
-        String tokenValue = token.getTokenValue();
-        if (tokenValue.equals(RuleBasedSegmenter.PARAGRAPH)) {
-          tokenValue = DEFAULT_TOKEN_VALUE;
-        }
-        sb.append(tokenValue.trim()).append(DELIMITER).append(token.startOffset())
-            .append(DELIMITER).append(token.tokenLength()).append(LINE_BREAK);
-      }
-      sb.append(LINE_BREAK);
+    final StringWriter writer = new StringWriter();
+    try {
+      tokenizeToCoNLLOffsets(writer);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
     }
-    return sb.toString();
+    return writer.toString();
+  }
+
+  /**
+   * Tokenizes and segments input text and writes it in conll format with the
+   * offset and length of each token.
+   * 
+   * @param writer
+   *          the writer
+   * @throws IOException
+   *           if io problems
+   */
+  public void tokenizeToCoNLLOffsets(final Writer writer) throws IOException {
+    annotate("conll", tokens -> tokensToCoNLL(tokens, true, writer));
   }
 
   /**
@@ -205,34 +697,129 @@ public class Annotate {
    * @return String tokenized text
    */
   public String tokenizeToText() {
+    final StringWriter writer = new StringWriter();
+    try {
+      tokenizeToText(writer);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return writer.toString();
+  }
 
-    final StringBuilder sb = new StringBuilder();
-    if (isNoSeg) {
-      String[] sentences = text.toArray(new String[text.size()]);
-      final List<List<Token>> tokens = tokenizer.tokenize(sentences);
-      for (final List<Token> tokSentence : tokens) {
-        for (final Token tok : tokSentence) {
-          String tokenValue = tok.getTokenValue();
-          sb.append(tokenValue.trim()).append(DELIMITER);
-        }
-        sb.append(LINE_BREAK);
+  /**
+   * Tokenize and Segment input text and write it in running text format one
+   * sentence per line.
+   * 
+   * @param writer
+   *          the writer
+   * @throws IOException
+   *           if io problems
+   */
+  public void tokenizeToText(final Writer writer) throws IOException {
+    annotate("oneline", tokens -> tokensToText(tokens, isNoSeg, writer));
+  }
+
+  /**
+   * Write tokens in conll format, one token per line and an empty line after
+   * each sentence, optionally followed by the offset and length of each token.
+   * Paragraph marks are written as "*&lt;P&gt;*".
+   * 
+   * @param tokens
+   *          the tokens of each sentence
+   * @param offsets
+   *          whether to write offsets and lengths
+   * @param writer
+   *          the writer
+   * @throws IOException
+   *           if io problems
+   */
+  public static void tokensToCoNLL(final List<List<Token>> tokens,
+      final boolean offsets, final Writer writer) throws IOException {
+    final TokenWriter out = new TokenWriter(writer, false);
+    for (final List<Token> tokSentence : tokens) {
+      writeCoNLL(tokSentence, offsets, out);
+    }
+    out.flush();
+  }
+
+  /**
+   * Write the tokens of one sentence in conll format.
+   * 
+   * @param sentence
+   *          the tokens of the sentence
+   * @param offsets
+   *          whether to write offsets and lengths
+   * @param out
+   *          the token writer
+   * @throws IOException
+   *           if io problems
+   */
+  static void writeCoNLL(final List<Token> sentence, final boolean offsets,
+      final TokenWriter out) throws IOException {
+    for (final Token token : sentence) {
+      if (TokenWriter.isParagraph(token)) {
+        out.write(DEFAULT_TOKEN_VALUE);
+      } else {
+        out.writeToken(token);
       }
-    } else {
-      final String[] sentences = segmenter.segmentSentence();
-      final List<List<Token>> tokens = tokenizer.tokenize(sentences);
-      for (final List<Token> tokSentence : tokens) {
-        for (final Token token : tokSentence) {
-          String tokenValue = token.getTokenValue();
-          if (tokenValue.equals(RuleBasedSegmenter.PARAGRAPH)) {
-            sb.append(DEFAULT_TOKEN_VALUE).append(LINE_BREAK);
-          } else {
-            sb.append(tokenValue.trim()).append(DELIMITER);
-          }
-        }
-        sb.append(LINE_BREAK);
+      if (offsets) {
+        out.writeSpace(' ');
+        out.writeInt(token.startOffset());
+        out.writeSpace(' ');
+        out.writeInt(token.tokenLength());
+      }
+      out.writeSpace('\n');
+    }
+    out.writeSpace('\n');
+  }
+
+  /**
+   * Write tokens in running text format, one sentence per line, without
+   * leading or trailing whitespace. Unless the text was not segmented,
+   * paragraph marks are written as "*&lt;P&gt;*" in their own line.
+   * 
+   * @param tokens
+   *          the tokens of each sentence
+   * @param noseg
+   *          whether the text was not segmented
+   * @param writer
+   *          the writer
+   * @throws IOException
+   *           if io problems
+   */
+  public static void tokensToText(final List<List<Token>> tokens,
+      final boolean noseg, final Writer writer) throws IOException {
+    final TokenWriter out = new TokenWriter(writer, true);
+    for (final List<Token> tokSentence : tokens) {
+      writeText(tokSentence, noseg, out);
+    }
+    out.flush();
+  }
+
+  /**
+   * Write the tokens of one sentence in running text format.
+   * 
+   * @param sentence
+   *          the tokens of the sentence
+   * @param noseg
+   *          whether the text was not segmented
+   * @param out
+   *          the token writer
+   * @throws IOException
+   *           if io problems
+   */
+  static void writeText(final List<Token> sentence, final boolean noseg,
+      final TokenWriter out) throws IOException {
+    for (final Token token : sentence) {
+      if (!noseg && TokenWriter.isParagraph(token)) {
+        out.write(DEFAULT_TOKEN_VALUE);
+        out.writeSpace('\n');
+      } else {
+        out.writeToken(token);
+        out.writeSpace(' ');
       }
     }
-    return sb.toString().trim();
+    out.writeSpace('\n');
   }
 
   /**
@@ -0,0 +1,292 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package eus.ixa.ixa.pipe.tok;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Tokenizes every file of a corpus into an output directory, one output file
+ * per input file and output format, keeping the relative path of the input.
+ * Finished inputs are recorded in a {@link Manifest}, so that a run started
+ * again after a crash skips them and only tokenizes the inputs not done yet,
+ * changed since, or done with other options. Outputs are written to a
+ * temporary file, forced to disk and moved in place, and their directories
+ * forced to disk, before the input is recorded.
+ *
+ * @author ragerri
+ * @version 2016-04-20
+ */
+public class CorpusRun {
+
+  private static final Logger LOG = LogManager.getLogger(CorpusRun.class);
+
+  /**
+   * Tokenizes one input and writes it in every output format.
+   */
+  public interface FileAnnotator {
+    /**
+     * Annotate an input.
+     * 
+     * @param input
+     *          the input file
+     * @param outputs
+     *          the writer of each output format
+     * @throws IOException
+     *           if io problems
+     */
+    void annotate(Path input, Map<String, Writer> outputs) throws IOException;
+  }
+
+  private final Path outputDir;
+  private final List<String> formats;
+  private final Manifest manifest;
+  private final String hash;
+  private int done;
+  private int skipped;
+  private int failed;
+
+  /**
+   * Build a corpus run.
+   * 
+   * @param outputDir
+   *          the output directory
+   * @param formats
+   *          the output formats
+   * @param manifest
+   *          the manifest of finished inputs
+   * @param hash
+   *          the hash of the options, see {@link Manifest#hash}
+   */
+  public CorpusRun(final Path outputDir, final List<String> formats,
+      final Manifest manifest, final String hash) {
+    this.outputDir = outputDir;
+    this.formats = formats;
+    this.manifest = manifest;
+    this.hash = hash;
+  }
+
+  /**
+   * Tokenize every input of a corpus not done yet. An input which cannot be
+   * tokenized is logged and left out of the manifest, so that the next run
+   * tries it again.
+   * 
+   * @param corpus
+   *          a file or a directory, which is walked recursively
+   * @param annotator
+   *          tokenizes and writes each input
+   * @throws IOException
+   *           if the corpus cannot be listed or the manifest written
+   */
+  public void run(final Path corpus, final FileAnnotator annotator)
+      throws IOException {
+    for (final Path input : getInputs(corpus)) {
+      if (manifest.isDone(input, hash) && outputsExist(corpus, input)) {
+        skipped++;
+        continue;
+      }
+      try {
+        annotate(corpus, input, annotator);
+      } catch (final IOException | RuntimeException e) {
+        LOG.error("Failed to tokenize {}", input, e);
+        failed++;
+        continue;
+      }
+      manifest.record(input, hash);
+      done++;
+    }
+    LOG.info("Tokenized {} files, skipped {} already done, {} failed", done,
+        skipped, failed);
+  }
+
+  /**
+   * Get the number of inputs tokenized.
+   * 
+   * @return the number of inputs
+   */
+  public int getDone() {
+    return done;
+  }
+
+  /**
+   * Get the number of inputs skipped because they were done.
+   * 
+   * @return the number of inputs
+   */
+  public int getSkipped() {
+    return skipped;
+  }
+
+  /**
+   * Get the number of inputs which could not be tokenized.
+   * 
+   * @return the number of inputs
+   */
+  public int getFailed() {
+    return failed;
+  }
+
+  /**
+   * Get the output of an input in one format.
+   * 
+   * @param corpus
+   *          the corpus file or directory
+   * @param input
+   *          the input file
+   * @param format
+   *          the output format
+   * @return the output file
+   */
+  public Path getOutput(final Path corpus, final Path input,
+      final String format) {
+    final Path relative = Files.isDirectory(corpus)
+        ? corpus.relativize(input) : input.getFileName();
+    return outputDir.resolve(relative.toString() + getExtension(format));
+  }
+
+  /**
+   * Get the file extension of an output format.
+   * 
+   * @param format
+   *          the output format
+   * @return the extension
+   */
+  public static String getExtension(final String format) {
+    if (format.equals("conll")) {
+      return ".conll";
+    } else if (format.equals("oneline")) {
+      return ".txt";
+    } else {
+      return ".naf";
+    }
+  }
+
+  private List<Path> getInputs(final Path corpus) throws IOException {
+    if (!Files.isDirectory(corpus)) {
+      final List<Path> inputs = new ArrayList<>();
+      inputs.add(corpus);
+      return inputs;
+    }
+    try (Stream<Path> files = Files.walk(corpus)) {
+      return files.filter(Files::isRegularFile)
+          .filter(file -> !file.getFileName().toString().startsWith("."))
+          // the output may be written inside the corpus
+          .filter(file -> !file.toAbsolutePath()
+              .startsWith(outputDir.toAbsolutePath()))
+          .sorted().collect(Collectors.toList());
+    }
+  }
+
+  private boolean outputsExist(final Path corpus, final Path input) {
+    for (final String format : formats) {
+      if (!Files.exists(getOutput(corpus, input, format))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void annotate(final Path corpus, final Path input,
+      final FileAnnotator annotator) throws IOException {
+    final Map<String, Path> tmpFiles = new LinkedHashMap<>();
+    final Map<String, Writer> writers = new LinkedHashMap<>();
+    try {
+      for (final String format : formats) {
+        final Path output = getOutput(corpus, input, format);
+        Files.createDirectories(output.getParent());
+        final Path tmp = output
+            .resolveSibling("." + output.getFileName() + ".tmp");
+        tmpFiles.put(format, tmp);
+        writers.put(format,
+            Files.newBufferedWriter(tmp, StandardCharsets.UTF_8));
+      }
+      annotator.annotate(input, writers);
+      for (final Writer writer : writers.values()) {
+        writer.close();
+      }
+      for (final Path tmp : tmpFiles.values()) {
+        force(tmp);
+      }
+      final Set<Path> dirs = new LinkedHashSet<>();
+      for (final String format : formats) {
+        final Path output = getOutput(corpus, input, format);
+        Files.move(tmpFiles.get(format), output,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        dirs.add(output.toAbsolutePath().getParent());
+      }
+      // the moves are only durable once their directories are
+      for (final Path dir : dirs) {
+        forceDirectory(dir);
+      }
+    } finally {
+      for (final Writer writer : writers.values()) {
+        writer.close();
+      }
+      for (final Path tmp : tmpFiles.values()) {
+        Files.deleteIfExists(tmp);
+      }
+    }
+  }
+
+  /**
+   * Force the content of a file to disk.
+   */
+  private static void force(final Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file,
+        StandardOpenOption.WRITE)) {
+      channel.force(true);
+    }
+  }
+
+  /**
+   * Force the entries of a directory to disk, where the platform allows to
+   * open a directory.
+   */
+  private static void forceDirectory(final Path dir) throws IOException {
+    final FileChannel channel;
+    try {
+      channel = FileChannel.open(dir, StandardOpenOption.READ);
+    } catch (final IOException e) {
+      // directories cannot be opened on Windows
+      return;
+    }
+    try {
+      channel.force(true);
+    } finally {
+      channel.close();
+    }
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.tok;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for a document tokenized by {@link Annotate} or
+ * answered by the {@link RuleBasedTokenizerServer}. The duration of the event
+ * is the time spent on the document.
+ *
+ * @author ragerri
+ * @version 2016-04-20
+ */
+@Name("eus.ixa.ixa.pipe.tok.Document")
+@Label("Document")
+@Category("ixa-pipe-tok")
+@Description("A document tokenized by ixa-pipe-tok")
+@StackTrace(false)
+class DocumentEvent extends jdk.jfr.Event {
+
+  @Label("Source")
+  @Description("annotate, pipeline or server")
+  String source;
+
+  @Label("Language")
+  String language;
+
+  @Label("Output Format")
+  String outputFormat;
+
+  @Label("Input Characters")
+  long inputSize;
+
+  @Label("Sentences")
+  int sentences;
+
+  @Label("Tokens")
+  int tokens;
+}
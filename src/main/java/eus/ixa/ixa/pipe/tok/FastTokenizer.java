@@ -0,0 +1,392 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package eus.ixa.ixa.pipe.tok;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import eus.ixa.ixa.pipe.ml.tok.NonPeriodBreaker;
+import eus.ixa.ixa.pipe.ml.tok.RuleBasedTokenizer;
+import eus.ixa.ixa.pipe.ml.tok.Token;
+import eus.ixa.ixa.pipe.ml.tok.Tokenizer;
+
+/**
+ * Tokenizer for the common case of sentences made of Latin script words,
+ * numbers and simple punctuation, without the regular expressions of the
+ * rule-based tokenizer. Every character goes through a table of character
+ * classes built once, and a single pass over each sentence splits it:
+ * <ol>
+ * <li>words are runs of ASCII or Latin letters and ASCII digits, with
+ * hyphens between letters or digits and commas between digits;
+ * <li>commas, the characters {@code ;()[]%$&*+=} and runs of {@code ?} and
+ * {@code !} are tokens of their own;
+ * <li>a period ending the sentence is split from the last word unless the
+ * word is a non-breaking prefix of the language, as decided by the
+ * rule-based {@link NonPeriodBreaker}.
+ * </ol>
+ * Sentences with any other character, such as quotes, apostrophes, colons,
+ * slashes or other periods, and sentences on which the rules above could
+ * differ from the rule-based tokenizer, such as a comma ending the sentence,
+ * are tokenized by the rule-based tokenizer on the text following the
+ * previous token, so the tokens and offsets are always the same as with it.
+ * None of the token normalizations of the rule-based tokenizer applies to
+ * the sentences tokenized here.
+ *
+ * @author ragerri
+ * @version 2016-04-20
+ */
+public class FastTokenizer implements Tokenizer {
+
+  private static final byte OTHER = 0;
+  private static final byte SPACE = 1;
+  private static final byte LETTER = 2;
+  private static final byte DIGIT = 3;
+  private static final byte COMMA = 4;
+  private static final byte HYPHEN = 5;
+  private static final byte SPECIAL = 6;
+  private static final byte QEXC = 7;
+  private static final byte PERIOD = 8;
+  /**
+   * The class of each character up to the end of Latin Extended-B; every
+   * other character is of the OTHER class.
+   */
+  private static final byte[] CLASSES = new byte[0x250];
+  /**
+   * The characters split as tokens of their own by the rule-based tokenizer
+   * and not changed by its normalization.
+   */
+  private static final String SPECIALS = ";()[]%$&*+=";
+  /**
+   * The placeholder of the rule-based tokenizer for runs of periods, turned
+   * back into periods even where it is found in the text.
+   */
+  private static final String DOT_MULTI = "DOTMULTI";
+  /**
+   * The non-breaking prefixes of each language.
+   */
+  private static final Map<String, NonPeriodBreaker> NON_BREAKERS = new ConcurrentHashMap<>();
+
+  static {
+    for (char c = 0; c < CLASSES.length; c++) {
+      if (c == ' ' || c == '\t') {
+        CLASSES[c] = SPACE;
+      } else if (c >= '0' && c <= '9') {
+        CLASSES[c] = DIGIT;
+      } else if (c < 0x80 ? Character.isLetter(c)
+          : c >= 0xC0 && Character.isAlphabetic(c)) {
+        CLASSES[c] = LETTER;
+      } else if (c == ',') {
+        CLASSES[c] = COMMA;
+      } else if (c == '-') {
+        CLASSES[c] = HYPHEN;
+      } else if (c == '?' || c == '!') {
+        CLASSES[c] = QEXC;
+      } else if (c == '.') {
+        CLASSES[c] = PERIOD;
+      } else if (SPECIALS.indexOf(c) >= 0) {
+        CLASSES[c] = SPECIAL;
+      }
+    }
+  }
+
+  private final String text;
+  private final Properties properties;
+  private final NonPeriodBreaker nonBreaker;
+  private int fastSentences;
+  private int ruleBasedSentences;
+
+  /**
+   * Build a tokenizer of the sentences of a text.
+   *
+   * @param text
+   *          the text
+   * @param properties
+   *          the options
+   */
+  public FastTokenizer(final String text, final Properties properties) {
+    this.text = text;
+    this.properties = properties;
+    this.nonBreaker = NON_BREAKERS.computeIfAbsent(
+        properties.getProperty("language").toLowerCase(),
+        lang -> new NonPeriodBreaker(properties));
+  }
+
+  @Override
+  public List<List<Token>> tokenize(final String[] sentences) {
+    final List<List<Token>> fastTokens = new ArrayList<>(sentences.length);
+    for (final String sentence : sentences) {
+      fastTokens.add(tokenize(sentence));
+    }
+    final List<List<Token>> tokens = new ArrayList<>(sentences.length);
+    // the end offset of the last token
+    int prevOffset = 0;
+    int i = 0;
+    while (i < sentences.length) {
+      final List<Token> sentenceTokens = place(fastTokens.get(i), prevOffset);
+      if (sentenceTokens != null) {
+        if (!sentenceTokens.isEmpty()) {
+          final Token last = sentenceTokens.get(sentenceTokens.size() - 1);
+          prevOffset = last.startOffset() + last.tokenLength();
+        }
+        tokens.add(sentenceTokens);
+        fastSentences++;
+        i++;
+        continue;
+      }
+      // the rule-based tokenizer takes the sentences up to the next one
+      // with tokens of this tokenizer; if it may drop replacement
+      // characters at the end of them, it takes the next sentence with
+      // tokens too, whose last token ends where it goes on from
+      int end = i + 1;
+      while (end < sentences.length && fastTokens.get(end) == null) {
+        end++;
+      }
+      if (hasReplacement(sentences, i, end)) {
+        while (end < sentences.length && (fastTokens.get(end) == null
+            || fastTokens.get(end).isEmpty())) {
+          end++;
+        }
+        end = Math.min(end + 1, sentences.length);
+      }
+      final List<List<Token>> ruleBasedTokens = tokenizeRuleBased(sentences,
+          i, end, prevOffset);
+      for (final List<Token> ruleBasedSentence : ruleBasedTokens) {
+        for (final Token token : ruleBasedSentence) {
+          prevOffset = token.startOffset() + token.tokenLength();
+        }
+      }
+      tokens.addAll(ruleBasedTokens);
+      ruleBasedSentences += end - i;
+      i = end;
+    }
+    return tokens;
+  }
+
+  /**
+   * Place the tokens of a sentence in the text after the previous token.
+   *
+   * @param sentenceTokens
+   *          the tokens with offsets in the sentence, or null
+   * @param prevOffset
+   *          the end offset of the previous token
+   * @return the tokens with offsets in the text, or null if they are not
+   *         found where they belong
+   */
+  private List<Token> place(final List<Token> sentenceTokens,
+      final int prevOffset) {
+    if (sentenceTokens == null) {
+      return null;
+    }
+    final List<Token> tokens = new ArrayList<>(sentenceTokens.size());
+    int offset = prevOffset;
+    for (final Token token : sentenceTokens) {
+      final String form = token.getTokenValue();
+      offset = Annotate.indexOfToken(text, form, offset);
+      if (offset < 0) {
+        return null;
+      }
+      tokens.add(new Token(form, offset, form.length()));
+      offset += form.length();
+    }
+    return tokens;
+  }
+
+  private static boolean hasReplacement(final String[] sentences,
+      final int from, final int to) {
+    for (int i = from; i < to; i++) {
+      if (RuleBasedTokenizer.replacement.matcher(sentences[i]).find()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Tokenize some of the sentences with the rule-based tokenizer, on the
+   * text after the previous token; on the whole text with the sentences
+   * before if the previous token was placed past the end of the text.
+   *
+   * @param sentences
+   *          the sentences
+   * @param from
+   *          the first sentence
+   * @param to
+   *          the sentence after the last one
+   * @param prevOffset
+   *          the end offset of the previous token
+   * @return the tokens of the sentences, with offsets in the text
+   */
+  private List<List<Token>> tokenizeRuleBased(final String[] sentences,
+      final int from, final int to, final int prevOffset) {
+    if (prevOffset > text.length()) {
+      return TokenizerBackends.getRuleBased().newTokenizer(text, properties)
+          .tokenize(Arrays.copyOf(sentences, to)).subList(from, to);
+    }
+    final List<List<Token>> tokens = TokenizerBackends.getRuleBased()
+        .newTokenizer(text.substring(prevOffset), properties)
+        .tokenize(Arrays.copyOfRange(sentences, from, to));
+    for (final List<Token> sentenceTokens : tokens) {
+      for (final Token token : sentenceTokens) {
+        token.setStartOffset(token.startOffset() + prevOffset);
+      }
+    }
+    return tokens;
+  }
+
+  /**
+   * Get the number of sentences tokenized by this tokenizer.
+   *
+   * @return the number of sentences
+   */
+  public int getFastSentences() {
+    return fastSentences;
+  }
+
+  /**
+   * Get the number of sentences handed to the rule-based tokenizer.
+   *
+   * @return the number of sentences
+   */
+  public int getRuleBasedSentences() {
+    return ruleBasedSentences;
+  }
+
+  private static byte classOf(final char c) {
+    return c < CLASSES.length ? CLASSES[c] : OTHER;
+  }
+
+  /**
+   * Tokenize a sentence.
+   *
+   * @param sentence
+   *          the sentence
+   * @return the tokens, with offsets in the sentence, or null if the sentence
+   *         must go to the rule-based tokenizer
+   */
+  List<Token> tokenize(final String sentence) {
+    int start = 0;
+    int end = sentence.length();
+    while (start < end && classOf(sentence.charAt(start)) == SPACE) {
+      start++;
+    }
+    while (end > start && classOf(sentence.charAt(end - 1)) == SPACE) {
+      end--;
+    }
+    final List<Token> tokens = new ArrayList<>();
+    if (start == end) {
+      return tokens;
+    }
+    if (sentence.contains(DOT_MULTI)) {
+      return null;
+    }
+    // start of the word being read, -1 between words
+    int word = -1;
+    for (int i = start; i < end; i++) {
+      switch (classOf(sentence.charAt(i))) {
+      case LETTER:
+      case DIGIT:
+        if (word < 0) {
+          word = i;
+        }
+        break;
+      case SPACE:
+        word = addWord(sentence, word, i, tokens);
+        break;
+      case HYPHEN:
+        if (word < 0 || i == end - 1
+            || !isWordChar(sentence.charAt(i + 1))) {
+          return null;
+        }
+        break;
+      case COMMA: {
+        if (i == start || i == end - 1) {
+          return null;
+        }
+        final byte previous = classOf(sentence.charAt(i - 1));
+        final byte next = classOf(sentence.charAt(i + 1));
+        if (previous == COMMA || next == COMMA) {
+          return null;
+        }
+        if (previous != DIGIT || next != DIGIT) {
+          word = addWord(sentence, word, i, tokens);
+          tokens.add(new Token(",", i, 1));
+        }
+        break;
+      }
+      case SPECIAL:
+        word = addWord(sentence, word, i, tokens);
+        tokens.add(new Token(sentence.substring(i, i + 1), i, 1));
+        break;
+      case QEXC: {
+        word = addWord(sentence, word, i, tokens);
+        int j = i + 1;
+        while (j < end && classOf(sentence.charAt(j)) == QEXC) {
+          j++;
+        }
+        tokens.add(new Token(sentence.substring(i, j), i, j - i));
+        i = j - 1;
+        break;
+      }
+      case PERIOD: {
+        if (i != end - 1 || word < 0) {
+          return null;
+        }
+        final String lastWord = sentence.substring(word, end);
+        // the rule-based tokenizer splits the result on spaces
+        final String broken = nonBreaker.TokenizerNonBreaker(lastWord).trim();
+        if (broken.equals(lastWord)) {
+          tokens.add(new Token(lastWord, word, lastWord.length()));
+        } else if (broken.equals(sentence.substring(word, i) + " .")) {
+          addWord(sentence, word, i, tokens);
+          tokens.add(new Token(".", i, 1));
+        } else {
+          return null;
+        }
+        word = -1;
+        break;
+      }
+      default:
+        return null;
+      }
+    }
+    addWord(sentence, word, end, tokens);
+    return tokens;
+  }
+
+  private static boolean isWordChar(final char c) {
+    final byte charClass = classOf(c);
+    return charClass == LETTER || charClass == DIGIT;
+  }
+
+  /**
+   * Add the word being read, if any, ending at the given offset.
+   *
+   * @return -1, as no word is being read any more
+   */
+  private static int addWord(final String sentence, final int word,
+      final int end, final List<Token> tokens) {
+    if (word >= 0) {
+      tokens.add(new Token(sentence.substring(word, end), word, end - word));
+    }
+    return -1;
+  }
+}
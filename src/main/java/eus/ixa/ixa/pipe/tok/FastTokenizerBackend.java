@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package eus.ixa.ixa.pipe.tok;
+
+import java.util.Properties;
+
+import eus.ixa.ixa.pipe.ml.tok.RuleBasedSegmenter;
+import eus.ixa.ixa.pipe.ml.tok.SentenceSegmenter;
+import eus.ixa.ixa.pipe.ml.tok.Tokenizer;
+
+/**
+ * The backend of the {@link FastTokenizer}: sentences are segmented by the
+ * rule-based segmenter and tokenized by the fast tokenizer, which hands the
+ * sentences it cannot handle to the rule-based tokenizer.
+ *
+ * @author ragerri
+ * @version 2016-04-20
+ */
+public class FastTokenizerBackend implements TokenizerBackend {
+
+  /**
+   * The name of the backend.
+   */
+  public static final String NAME = "fast";
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  /**
+   * The fast tokenizer needs the non-breaking prefixes of the language.
+   */
+  @Override
+  public boolean supports(final Properties properties) {
+    final String lang = properties.getProperty("language");
+    return lang != null && RuleBasedSegmenter.class.getResource(
+        "/tokenizer/" + lang.toLowerCase() + "-exceptions.txt") != null;
+  }
+
+  @Override
+  public SentenceSegmenter newSegmenter(final String text,
+      final Properties properties) {
+    return new RuleBasedSegmenter(text, properties);
+  }
+
+  @Override
+  public Tokenizer newTokenizer(final String text,
+      final Properties properties) {
+    return new FastTokenizer(text, properties);
+  }
+}
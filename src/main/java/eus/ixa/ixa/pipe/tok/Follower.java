@@ -0,0 +1,478 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package eus.ixa.ixa.pipe.tok;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import eus.ixa.ixa.pipe.ml.tok.Token;
+
+/**
+ * Follows a growing file, or every file in a directory, and tokenizes the
+ * paragraphs appended to it as soon as they are complete, that is, once they
+ * are followed by a blank line. The tokens of each followed file are appended
+ * to a file of the same name plus the output format extension in the output
+ * directory.
+ * <p>
+ * Next to each output file a checkpoint keeps the input offset, the number of
+ * characters, sentences and paragraphs already tokenized and the size of the
+ * output, so that a restarted follower carries on where the previous one
+ * stopped. The checkpoint is written after the output; output appended by a
+ * follower stopped before writing its checkpoint is truncated on restart, so
+ * that no paragraph is written twice. Token offsets are offsets in the whole
+ * input file. An input which becomes shorter than its checkpoint, as when it
+ * is replaced, is followed anew from an empty output.
+ * <p>
+ * The follower is configured with the annotate properties plus:
+ * <ol>
+ * <li>outputFormat: conll or oneline; NAF documents cannot be appended to.
+ * <li>offsets: whether to write offsets and lengths in conll format.
+ * <li>followInterval: seconds between checks of the input when no change is
+ * notified, defaults to 1.
+ * </ol>
+ *
+ * @author ragerri
+ * @version 2016-04-20
+ */
+public class Follower implements Closeable {
+
+  private static final Logger LOG = LogManager.getLogger(Follower.class);
+
+  /**
+   * Extension of the checkpoint files.
+   */
+  public static final String CHECKPOINT = ".checkpoint";
+
+  /**
+   * Maximum number of bytes tokenized at once.
+   */
+  private static final long MAX_READ = 1 << 24;
+
+  /**
+   * The state of a followed file, as stored in its checkpoint.
+   */
+  private static class Checkpoint {
+    private long offset;
+    private long characters;
+    private long sentences;
+    private long paragraphs;
+    private long outputSize;
+  }
+
+  private final Path input;
+  private final Path outputDir;
+  private final Properties properties;
+  private final String outputFormat;
+  private final boolean offsets;
+  private final boolean noSeg;
+  private final long interval;
+  private final Map<Path, Checkpoint> checkpoints = new LinkedHashMap<>();
+  private volatile WatchService watcher;
+  private volatile boolean closed;
+
+  /**
+   * Build a follower.
+   * 
+   * @param input
+   *          the file or directory to follow
+   * @param outputDir
+   *          the directory of the output and checkpoint files
+   * @param properties
+   *          the properties
+   */
+  public Follower(final Path input, final Path outputDir,
+      final Properties properties) {
+    this.input = input;
+    this.outputDir = outputDir;
+    this.properties = properties;
+    this.outputFormat = properties.getProperty("outputFormat", "conll");
+    if (!outputFormat.equals("conll") && !outputFormat.equals("oneline")) {
+      throw new IllegalArgumentException(
+          "Only conll and oneline output can be followed: " + outputFormat);
+    }
+    this.offsets = Boolean.valueOf(properties.getProperty("offsets", "true"));
+    this.noSeg = Boolean.valueOf(properties.getProperty("noseg"));
+    this.interval = Long
+        .parseLong(properties.getProperty("followInterval", "1"));
+  }
+
+  /**
+   * Tokenize the complete paragraphs appended to the followed files since the
+   * last update.
+   * 
+   * @return the number of paragraphs tokenized
+   * @throws IOException
+   *           if io problems
+   */
+  public long update() throws IOException {
+    long paragraphs = 0;
+    for (final Path file : getInputs()) {
+      paragraphs += update(file);
+    }
+    return paragraphs;
+  }
+
+  /**
+   * Update the followed files whenever they change, until the follower is
+   * closed or the thread interrupted.
+   * 
+   * @throws IOException
+   *           if io problems
+   * @throws InterruptedException
+   *           if interrupted while waiting for changes
+   */
+  public void follow() throws IOException, InterruptedException {
+    final Path dir = Files.isDirectory(input) ? input
+        : input.toAbsolutePath().getParent();
+    watcher = dir.getFileSystem().newWatchService();
+    try {
+      dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY);
+      LOG.info("Following {}", input);
+      while (!closed) {
+        update();
+        // changes are also looked for every interval, as some file systems
+        // do not notify them
+        final WatchKey key = watcher.poll(interval, TimeUnit.SECONDS);
+        if (key != null) {
+          key.pollEvents();
+          key.reset();
+        }
+      }
+    } catch (final ClosedWatchServiceException e) {
+      // closed while waiting
+    } finally {
+      watcher.close();
+    }
+  }
+
+  /**
+   * Stop following.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    if (watcher != null) {
+      watcher.close();
+    }
+  }
+
+  /**
+   * Get the output file of a followed file.
+   * 
+   * @param file
+   *          the followed file
+   * @return the output file
+   */
+  public Path getOutput(final Path file) {
+    return outputDir.resolve(file.getFileName()
+        + (outputFormat.equals("conll") ? ".conll" : ".txt"));
+  }
+
+  private Path getCheckpointFile(final Path file) {
+    return outputDir.resolve(getOutput(file).getFileName() + CHECKPOINT);
+  }
+
+  private List<Path> getInputs() throws IOException {
+    final List<Path> inputs = new ArrayList<>();
+    if (!Files.isDirectory(input)) {
+      if (Files.isRegularFile(input)) {
+        inputs.add(input);
+      }
+      return inputs;
+    }
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(input)) {
+      for (final Path file : files) {
+        final String name = file.getFileName().toString();
+        // skip hidden files and our own output if it is written to the
+        // followed directory
+        if (Files.isRegularFile(file) && !name.startsWith(".")
+            && !name.endsWith(CHECKPOINT)
+            && !Files.exists(outputDir.resolve(name + CHECKPOINT))) {
+          inputs.add(file);
+        }
+      }
+    }
+    inputs.sort(null);
+    return inputs;
+  }
+
+  private long update(final Path file) throws IOException {
+    final Checkpoint checkpoint = getCheckpoint(file);
+    final long size = Files.size(file);
+    if (size < checkpoint.offset) {
+      LOG.warn("{} is shorter than the last checkpoint, following it anew",
+          file);
+      reset(file, checkpoint);
+    }
+    long paragraphs = 0;
+    long length = MAX_READ;
+    while (checkpoint.offset < size) {
+      final long remaining = size - checkpoint.offset;
+      final String text = readParagraphs(file, checkpoint.offset,
+          Math.min(length, remaining));
+      if (text.isEmpty()) {
+        if (length >= remaining) {
+          break;
+        }
+        // a paragraph longer than the read
+        length *= 2;
+        continue;
+      }
+      paragraphs += update(file, checkpoint, text);
+      length = MAX_READ;
+    }
+    return paragraphs;
+  }
+
+  private long update(final Path file, final Checkpoint checkpoint,
+      final String text) throws IOException {
+    final long paragraphs = countParagraphs(text);
+    if (paragraphs > 0) {
+      final List<List<Token>> tokens = new Annotate(
+          new BufferedReader(new StringReader(text)), properties).tokenize();
+      shift(tokens, checkpoint.characters);
+      checkpoint.outputSize = write(getOutput(file), tokens);
+      checkpoint.sentences += tokens.size();
+      checkpoint.paragraphs += paragraphs;
+    }
+    checkpoint.offset += text.getBytes(StandardCharsets.UTF_8).length;
+    checkpoint.characters += text.length();
+    writeCheckpoint(getCheckpointFile(file), checkpoint);
+    return paragraphs;
+  }
+
+  /**
+   * Read the text from an offset up to the end of its last complete
+   * paragraph.
+   */
+  private static String readParagraphs(final Path file, final long offset,
+      final long length) throws IOException {
+    final ByteBuffer buffer = ByteBuffer
+        .allocate((int) Math.min(length, Integer.MAX_VALUE - 8));
+    try (FileChannel channel = FileChannel.open(file,
+        StandardOpenOption.READ)) {
+      channel.position(offset);
+      while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+      }
+    }
+    // lines end with a newline byte, which never is part of a multibyte
+    // character
+    int end = buffer.position();
+    while (end > 0 && buffer.get(end - 1) != '\n') {
+      end--;
+    }
+    final String lines = new String(buffer.array(), 0, end,
+        StandardCharsets.UTF_8);
+    return lines.substring(0, getParagraphsEnd(lines));
+  }
+
+  /**
+   * Get the end of the last blank line of the text.
+   * 
+   * @param text
+   *          the text
+   * @return the end of the last blank line, or 0 if there is none
+   */
+  static int getParagraphsEnd(final String text) {
+    int end = 0;
+    boolean blank = true;
+    for (int i = 0; i < text.length(); i++) {
+      final char c = text.charAt(i);
+      if (c == '\n') {
+        if (blank) {
+          end = i + 1;
+        }
+        blank = true;
+      } else if (!Character.isWhitespace(c)) {
+        blank = false;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Count the paragraphs, runs of non blank lines, of a text.
+   */
+  private static long countParagraphs(final String text) {
+    long paragraphs = 0;
+    boolean inParagraph = false;
+    boolean blank = true;
+    for (int i = 0; i < text.length(); i++) {
+      final char c = text.charAt(i);
+      if (c == '\n') {
+        if (!blank && !inParagraph) {
+          paragraphs++;
+        }
+        inParagraph = !blank;
+        blank = true;
+      } else if (!Character.isWhitespace(c)) {
+        blank = false;
+      }
+    }
+    return paragraphs;
+  }
+
+  private static void shift(final List<List<Token>> tokens,
+      final long characters) {
+    for (final List<Token> sentence : tokens) {
+      for (final Token token : sentence) {
+        token.setStartOffset((int) (token.startOffset() + characters));
+      }
+    }
+  }
+
+  /**
+   * Append the tokens to the output and force them to disk.
+   * 
+   * @return the size of the output
+   */
+  private long write(final Path output, final List<List<Token>> tokens)
+      throws IOException {
+    try (FileChannel channel = FileChannel.open(output,
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.APPEND)) {
+      final OutputStream out = Channels.newOutputStream(channel);
+      final Writer writer = new OutputStreamWriter(out,
+          StandardCharsets.UTF_8);
+      if (outputFormat.equals("conll")) {
+        Annotate.tokensToCoNLL(tokens, offsets, writer);
+      } else {
+        Annotate.tokensToText(tokens, noSeg, writer);
+        writer.write('\n');
+      }
+      writer.flush();
+      channel.force(false);
+      return channel.size();
+    }
+  }
+
+  private Checkpoint getCheckpoint(final Path file) throws IOException {
+    Checkpoint checkpoint = checkpoints.get(file);
+    if (checkpoint == null) {
+      checkpoint = readCheckpoint(getCheckpointFile(file));
+      final Path output = getOutput(file);
+      if (Files.exists(output) && Files.size(output) > checkpoint.outputSize) {
+        LOG.warn("Truncating {} to its last checkpoint", output);
+        try (FileChannel channel = FileChannel.open(output,
+            StandardOpenOption.WRITE)) {
+          channel.truncate(checkpoint.outputSize);
+        }
+      }
+      checkpoints.put(file, checkpoint);
+    }
+    return checkpoint;
+  }
+
+  /**
+   * Truncate the output of a followed file and reset its checkpoint, so that
+   * the file is tokenized again from its start.
+   */
+  private void reset(final Path file, final Checkpoint checkpoint)
+      throws IOException {
+    final Path output = getOutput(file);
+    if (Files.exists(output)) {
+      try (FileChannel channel = FileChannel.open(output,
+          StandardOpenOption.WRITE)) {
+        channel.truncate(0);
+        channel.force(false);
+      }
+    }
+    checkpoint.offset = 0;
+    checkpoint.characters = 0;
+    checkpoint.sentences = 0;
+    checkpoint.paragraphs = 0;
+    checkpoint.outputSize = 0;
+    writeCheckpoint(getCheckpointFile(file), checkpoint);
+  }
+
+  private static Checkpoint readCheckpoint(final Path file)
+      throws IOException {
+    final Checkpoint checkpoint = new Checkpoint();
+    if (Files.exists(file)) {
+      final Properties stored = new Properties();
+      try (BufferedReader reader = Files.newBufferedReader(file,
+          StandardCharsets.UTF_8)) {
+        stored.load(reader);
+      }
+      checkpoint.offset = Long.parseLong(stored.getProperty("offset", "0"));
+      checkpoint.characters = Long
+          .parseLong(stored.getProperty("characters", "0"));
+      checkpoint.sentences = Long
+          .parseLong(stored.getProperty("sentences", "0"));
+      checkpoint.paragraphs = Long
+          .parseLong(stored.getProperty("paragraphs", "0"));
+      checkpoint.outputSize = Long
+          .parseLong(stored.getProperty("outputSize", "0"));
+    }
+    return checkpoint;
+  }
+
+  /**
+   * Write a checkpoint to a temporary file, force it to disk and move it in
+   * place, so that a checkpoint is never left half written.
+   */
+  private static void writeCheckpoint(final Path file,
+      final Checkpoint checkpoint) throws IOException {
+    final Properties stored = new Properties();
+    stored.setProperty("offset", Long.toString(checkpoint.offset));
+    stored.setProperty("characters", Long.toString(checkpoint.characters));
+    stored.setProperty("sentences", Long.toString(checkpoint.sentences));
+    stored.setProperty("paragraphs", Long.toString(checkpoint.paragraphs));
+    stored.setProperty("outputSize", Long.toString(checkpoint.outputSize));
+    final Path tmp = file.resolveSibling("." + file.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(tmp,
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      final Writer writer = new OutputStreamWriter(
+          Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+      stored.store(writer, "ixa-pipe-tok follow checkpoint");
+      writer.flush();
+      channel.force(false);
+    }
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+}
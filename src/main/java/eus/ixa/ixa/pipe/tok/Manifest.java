@@ -0,0 +1,229 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package eus.ixa.ixa.pipe.tok;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Append-only record of the inputs of a corpus run already tokenized. Every
+ * line holds the size, modification time, options hash and path of one
+ * input, tab separated; the last line of a path wins. An input is done if its
+ * size, modification time and options hash are those recorded, so that a
+ * changed input, or a run with other options, tokenizes it again.
+ * <p>
+ * A line is forced to disk before {@link #record(Path, String)} returns; a
+ * line left incomplete by a crash is ignored when the manifest is read.
+ *
+ * @author ragerri
+ * @version 2016-04-20
+ */
+public class Manifest implements Closeable {
+
+  private static final Logger LOG = LogManager.getLogger(Manifest.class);
+  /**
+   * The options which change the output files of a corpus run: the
+   * tokenization options and the output formats. Options which only change
+   * how the run goes, such as the backend or the caches, are left out.
+   */
+  private static final String[] OPTIONS = { "language", "normalize",
+      "untokenizable", "hardParagraph", "noseg", "outputFormat", "formats",
+      "offsets", "inputkaf", "kafversion" };
+  /**
+   * Number of bytes of the SHA-256 digest kept in the options hash.
+   */
+  private static final int HASH_BYTES = 8;
+
+  /**
+   * The recorded state of an input.
+   */
+  private static class Entry {
+    private final long size;
+    private final long modified;
+    private final String hash;
+
+    private Entry(final long size, final long modified, final String hash) {
+      this.size = size;
+      this.modified = modified;
+      this.hash = hash;
+    }
+  }
+
+  private final Map<String, Entry> entries = new HashMap<>();
+  private final FileChannel channel;
+
+  /**
+   * Open a manifest, creating it if it does not exist.
+   * 
+   * @param file
+   *          the manifest file
+   * @throws IOException
+   *           if io problems
+   */
+  public Manifest(final Path file) throws IOException {
+    if (Files.exists(file)) {
+      read(file);
+    }
+    channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    // terminate a line left incomplete by a crash
+    if (channel.size() > 0 && !endsWithNewline(file, channel.size())) {
+      channel.write(ByteBuffer.wrap(new byte[] { '\n' }));
+    }
+  }
+
+  /**
+   * Compute the hash of the options which change the output of an input.
+   * 
+   * @param properties
+   *          the options
+   * @return the options hash
+   */
+  public static String hash(final Properties properties) {
+    final StringBuilder options = new StringBuilder();
+    for (final String option : OPTIONS) {
+      options.append(option).append('=')
+          .append(properties.getProperty(option, "")).append('\n');
+    }
+    try {
+      final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      final byte[] bytes = digest
+          .digest(options.toString().getBytes(StandardCharsets.UTF_8));
+      final StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < HASH_BYTES; i++) {
+        sb.append(String.format("%02x", bytes[i]));
+      }
+      return sb.toString();
+    } catch (final NoSuchAlgorithmException e) {
+      // every JVM provides SHA-256
+      throw new AssertionError("SHA-256 not supported");
+    }
+  }
+
+  /**
+   * Whether an input is done with the given options.
+   * 
+   * @param input
+   *          the input file
+   * @param hash
+   *          the options hash
+   * @return true if the input has not changed since it was recorded with
+   *         these options
+   * @throws IOException
+   *           if io problems
+   */
+  public synchronized boolean isDone(final Path input, final String hash)
+      throws IOException {
+    final Entry entry = entries.get(getKey(input));
+    return entry != null && entry.hash.equals(hash)
+        && entry.size == Files.size(input)
+        && entry.modified == Files.getLastModifiedTime(input).toMillis();
+  }
+
+  /**
+   * Record an input as done.
+   * 
+   * @param input
+   *          the input file
+   * @param hash
+   *          the options hash
+   * @throws IOException
+   *           if io problems
+   */
+  public synchronized void record(final Path input, final String hash)
+      throws IOException {
+    final String key = getKey(input);
+    if (key.indexOf('\n') >= 0) {
+      throw new IOException("Paths with newlines are not supported: " + key);
+    }
+    final Entry entry = new Entry(Files.size(input),
+        Files.getLastModifiedTime(input).toMillis(), hash);
+    final String line = entry.size + "\t" + entry.modified + "\t" + hash
+        + "\t" + key + "\n";
+    final ByteBuffer buffer = ByteBuffer
+        .wrap(line.getBytes(StandardCharsets.UTF_8));
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    channel.force(false);
+    entries.put(key, entry);
+  }
+
+  /**
+   * Get the number of inputs recorded.
+   * 
+   * @return the number of inputs
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private static String getKey(final Path input) {
+    return input.toAbsolutePath().normalize().toString();
+  }
+
+  private void read(final Path file) throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(file,
+        StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        final String[] fields = line.split("\t", 4);
+        if (fields.length < 4) {
+          LOG.warn("Ignoring incomplete manifest line: {}", line);
+          continue;
+        }
+        try {
+          entries.put(fields[3], new Entry(Long.parseLong(fields[0]),
+              Long.parseLong(fields[1]), fields[2]));
+        } catch (final NumberFormatException e) {
+          LOG.warn("Ignoring incomplete manifest line: {}", line);
+        }
+      }
+    }
+  }
+
+  private static boolean endsWithNewline(final Path file, final long size)
+      throws IOException {
+    try (FileChannel reader = FileChannel.open(file,
+        StandardOpenOption.READ)) {
+      final ByteBuffer last = ByteBuffer.allocate(1);
+      reader.read(last, size - 1);
+      return last.get(0) == '\n';
+    }
+  }
+}
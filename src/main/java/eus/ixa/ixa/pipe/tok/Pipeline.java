@@ -0,0 +1,461 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.tok;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import eus.ixa.ixa.pipe.ml.tok.RuleBasedSegmenter;
+import eus.ixa.ixa.pipe.ml.tok.Token;
+
+/**
+ * Pipelined tokenization of a document. The calling thread segments the text
+ * and puts batches of sentences in a bounded queue, tokenizer workers
+ * tokenize the batches in parallel and a writer thread takes them from the
+ * queue in order, places their tokens in the text and renders them, so that
+ * output starts as soon as the first batch is tokenized.
+ * <p>
+ * The segmenter works on the whole text, as sentences may span paragraphs,
+ * so the text is read and segmented before the first batch is queued. The
+ * tokens of a sentence are only placed in the text if each of them is found
+ * right after the previous one; from the first sentence whose tokens are not,
+ * the writer takes the tokens of the whole text tokenized at once. With the
+ * noseg option the tokenizer sees no text, as in {@link Annotate}, so the
+ * input lines go through one tokenizer once read.
+ * <p>
+ * The output is the same as the one of {@link Annotate}, and the sentence
+ * cache and token interner are used in the same way. The pipeline is
+ * configured with:
+ * <ol>
+ * <li>pipeline: number of tokenizer threads, defaults to the number of
+ * processors.
+ * <li>pipelineQueue: number of batches queued or being tokenized, defaults to
+ * 16.
+ * <li>pipelineBatch: number of sentences per batch, defaults to 32.
+ * </ol>
+ *
+ * @author ragerri
+ * @version 2016-04-20
+ */
+public class Pipeline implements AutoCloseable {
+
+  /**
+   * Marks the end of the queue.
+   */
+  private static final Future<List<SentenceCache.Entry>> END = CompletableFuture
+      .completedFuture(Collections.<SentenceCache.Entry> emptyList());
+
+  /**
+   * Receives the tokens of each sentence in the writer thread.
+   */
+  private interface SentenceConsumer {
+    void accept(List<Token> sentence) throws IOException;
+
+    default void finish() throws IOException {
+    }
+  }
+
+  /**
+   * Renders each sentence in conll or running text format. The token writer
+   * is created and flushed in the writer thread, whose buffer it uses.
+   */
+  private static final class SentenceWriter implements SentenceConsumer {
+
+    private final Writer writer;
+    private final boolean conll;
+    private final boolean option;
+    private TokenWriter out;
+
+    /**
+     * @param option
+     *          offsets for conll, noseg for running text
+     */
+    SentenceWriter(final Writer writer, final boolean conll,
+        final boolean option) {
+      this.writer = writer;
+      this.conll = conll;
+      this.option = option;
+    }
+
+    @Override
+    public void accept(final List<Token> sentence) throws IOException {
+      if (out == null) {
+        out = new TokenWriter(writer, !conll);
+      }
+      if (conll) {
+        Annotate.writeCoNLL(sentence, option, out);
+      } else {
+        Annotate.writeText(sentence, option, out);
+      }
+    }
+
+    @Override
+    public void finish() throws IOException {
+      if (out != null) {
+        out.flush();
+      }
+    }
+  }
+
+  private final Properties properties;
+  private final SentenceCache sentenceCache;
+  private final TokenInterner interner;
+  private final int queueSize;
+  private final int batchSize;
+  private final String language;
+  private final ExecutorService tokenizers;
+  private final ExecutorService writers;
+
+  /**
+   * Build a pipeline.
+   *
+   * @param properties
+   *          the tokenization options and the pipeline configuration
+   * @param sentenceCache
+   *          the sentence cache, or null to tokenize every sentence
+   */
+  public Pipeline(final Properties properties,
+      final SentenceCache sentenceCache) {
+    this(properties, sentenceCache, null);
+  }
+
+  /**
+   * Build a pipeline sharing the token forms through an interner.
+   *
+   * @param properties
+   *          the tokenization options and the pipeline configuration
+   * @param sentenceCache
+   *          the sentence cache, or null to tokenize every sentence
+   * @param interner
+   *          the token interner, or null to keep the forms as tokenized
+   */
+  public Pipeline(final Properties properties,
+      final SentenceCache sentenceCache, final TokenInterner interner) {
+    this.properties = properties;
+    this.sentenceCache = sentenceCache;
+    this.interner = interner;
+    this.queueSize = Integer
+        .parseInt(properties.getProperty("pipelineQueue", "16"));
+    this.batchSize = Integer
+        .parseInt(properties.getProperty("pipelineBatch", "32"));
+    this.language = properties.getProperty("language");
+    this.tokenizers = Executors.newFixedThreadPool(
+        Integer.parseInt(properties.getProperty("pipeline",
+            String.valueOf(Runtime.getRuntime().availableProcessors()))));
+    this.writers = Executors.newSingleThreadExecutor();
+  }
+
+  /**
+   * Tokenize a document.
+   *
+   * @param breader
+   *          the reader of the document
+   * @return the tokens of each sentence
+   * @throws IOException
+   *           if io problems
+   */
+  public List<List<Token>> tokenize(final BufferedReader breader)
+      throws IOException {
+    final List<List<Token>> tokens = new ArrayList<>();
+    run(breader, "tokens", tokens::add);
+    return tokens;
+  }
+
+  /**
+   * Tokenize a document and write it in conll format while it is tokenized.
+   *
+   * @param breader
+   *          the reader of the document
+   * @param offsets
+   *          whether to write offsets and lengths
+   * @param writer
+   *          the writer
+   * @throws IOException
+   *           if io problems
+   */
+  public void tokenizeToCoNLL(final BufferedReader breader,
+      final boolean offsets, final Writer writer) throws IOException {
+    run(breader, "conll", new SentenceWriter(writer, true, offsets));
+  }
+
+  /**
+   * Tokenize a document and write it in running text format, one sentence
+   * per line, while it is tokenized.
+   *
+   * @param breader
+   *          the reader of the document
+   * @param writer
+   *          the writer
+   * @throws IOException
+   *           if io problems
+   */
+  public void tokenizeToText(final BufferedReader breader,
+      final Writer writer) throws IOException {
+    final boolean noSeg = Boolean.valueOf(properties.getProperty("noseg"));
+    run(breader, "oneline", new SentenceWriter(writer, false, noSeg));
+  }
+
+  /**
+   * Stop the tokenizer and writer threads.
+   */
+  @Override
+  public void close() {
+    tokenizers.shutdown();
+    writers.shutdown();
+  }
+
+  /**
+   * Run the three stages over a document.
+   */
+  private void run(final BufferedReader breader, final String outputFormat,
+      final SentenceConsumer consumer) throws IOException {
+    final DocumentEvent event = Tracing.beginDocument();
+    final BlockingQueue<Future<List<SentenceCache.Entry>>> queue = new ArrayBlockingQueue<>(
+        queueSize);
+    final boolean noSeg = Boolean.valueOf(properties.getProperty("noseg"));
+    Future<int[]> writer = null;
+    long inputSize = 0;
+    try {
+      if (noSeg) {
+        // the tokenizer sees no text, as in Annotate, so the tokens of the
+        // lines cannot be placed in it and the lines go through one tokenizer
+        final List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = breader.readLine()) != null) {
+          inputSize += line.length() + 1;
+          lines.add(line);
+        }
+        final String[] sentences = lines.toArray(new String[lines.size()]);
+        writer = writers.submit(() -> write(tokenizeText("", sentences),
+            consumer));
+      } else {
+        final String text = RuleBasedSegmenter.readText(breader);
+        inputSize = text.length();
+        final StageEvent segmentEvent = Tracing.beginStage();
+        final String[] sentences = TokenizerBackends.get(properties)
+            .newSegmenter(text, properties).segmentSentence();
+        Tracing.endStage(segmentEvent, "segment", language, inputSize,
+            sentences.length, null);
+        writer = writers.submit(() -> write(queue, text, sentences, consumer));
+        for (int i = 0; i < sentences.length; i += batchSize) {
+          put(queue, Arrays.asList(sentences).subList(i,
+              Math.min(i + batchSize, sentences.length)), writer);
+        }
+      }
+      putEnd(queue, writer);
+      final int[] counts = writer.get();
+      Tracing.endDocument(event, "pipeline", language, outputFormat,
+          inputSize, counts[0], counts[1]);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while tokenizing", e);
+    } catch (final ExecutionException e) {
+      // the writer fails with the failures of the tokenizers
+      Throwable cause = e.getCause();
+      while (cause instanceof ExecutionException) {
+        cause = cause.getCause();
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    } finally {
+      if (writer != null && !writer.isDone()) {
+        writer.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Queue the tokenization of a batch, waiting while the queue is full unless
+   * the writer has stopped.
+   */
+  private void put(final BlockingQueue<Future<List<SentenceCache.Entry>>> queue,
+      final List<String> batch, final Future<int[]> writer)
+      throws InterruptedException {
+    if (batch.isEmpty()) {
+      return;
+    }
+    final Future<List<SentenceCache.Entry>> tokens = tokenizers
+        .submit(() -> tokenizeBatch(batch));
+    while (!queue.offer(tokens, 100, TimeUnit.MILLISECONDS)) {
+      if (writer.isDone()) {
+        tokens.cancel(false);
+        return;
+      }
+    }
+  }
+
+  private void putEnd(final BlockingQueue<Future<List<SentenceCache.Entry>>> queue,
+      final Future<int[]> writer) throws InterruptedException {
+    while (!queue.offer(END, 100, TimeUnit.MILLISECONDS)) {
+      if (writer.isDone()) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Tokenize a batch of sentences, taking the ones already seen from the
+   * sentence cache.
+   */
+  private List<SentenceCache.Entry> tokenizeBatch(final List<String> batch) {
+    final StageEvent event = Tracing.beginStage();
+    final List<SentenceCache.Entry> entries;
+    if (sentenceCache == null) {
+      entries = Annotate.tokenizeEntries(batch, properties);
+      if (interner != null) {
+        for (final SentenceCache.Entry entry : entries) {
+          if (entry != null) {
+            entry.intern(interner);
+          }
+        }
+      }
+    } else {
+      final String configuration = SentenceCache.configuration(properties);
+      entries = new ArrayList<>(batch.size());
+      final List<String> misses = new ArrayList<>();
+      for (final String sentence : batch) {
+        final SentenceCache.Entry entry = sentenceCache.get(configuration,
+            sentence);
+        entries.add(entry);
+        if (entry == null) {
+          misses.add(sentence);
+        }
+      }
+      final List<SentenceCache.Entry> missEntries = Annotate
+          .tokenizeEntries(misses, properties);
+      int miss = 0;
+      for (int i = 0; i < entries.size(); i++) {
+        if (entries.get(i) == null) {
+          final SentenceCache.Entry entry = missEntries.get(miss++);
+          if (entry != null) {
+            if (interner != null) {
+              entry.intern(interner);
+            }
+            sentenceCache.put(configuration, entry.getSentence(), entry);
+            entries.set(i, entry);
+          }
+        }
+      }
+    }
+    long size = 0;
+    for (final String sentence : batch) {
+      size += sentence.length();
+    }
+    Tracing.endStage(event, "tokenize", language, size, batch.size(), null);
+    return entries;
+  }
+
+  /**
+   * Tokenize the sentences of a whole text with one tokenizer.
+   */
+  private List<List<Token>> tokenizeText(final String text,
+      final String[] sentences) {
+    final List<List<Token>> tokens = TokenizerBackends.get(properties)
+        .newTokenizer(text, properties).tokenize(sentences);
+    if (interner != null) {
+      interner.intern(tokens);
+    }
+    return tokens;
+  }
+
+  /**
+   * Take the tokenized batches in order, place their tokens in the text and
+   * pass them to the consumer. From the first sentence whose tokens cannot be
+   * placed on, the tokens are those of the whole text tokenized at once.
+   *
+   * @return the number of sentences and tokens written
+   */
+  private int[] write(
+      final BlockingQueue<Future<List<SentenceCache.Entry>>> queue,
+      final String text, final String[] sentences,
+      final SentenceConsumer consumer) throws Exception {
+    final int[] counts = new int[2];
+    List<List<Token>> textTokens = null;
+    int prevOffset = 0;
+    Future<List<SentenceCache.Entry>> batch;
+    while ((batch = queue.take()) != END) {
+      if (textTokens != null) {
+        batch.cancel(false);
+        continue;
+      }
+      for (final SentenceCache.Entry entry : batch.get()) {
+        final List<Token> sentence = new ArrayList<>();
+        if (entry != null) {
+          prevOffset = Annotate.place(entry, text, prevOffset, sentence);
+        }
+        if (entry == null || prevOffset < 0) {
+          textTokens = tokenizeText(text, sentences);
+          break;
+        }
+        write(sentence, consumer, counts);
+      }
+    }
+    if (textTokens != null) {
+      for (final List<Token> sentence : textTokens.subList(counts[0],
+          textTokens.size())) {
+        write(sentence, consumer, counts);
+      }
+    }
+    consumer.finish();
+    return counts;
+  }
+
+  /**
+   * Pass the tokens of a whole text to the consumer.
+   *
+   * @return the number of sentences and tokens written
+   */
+  private static int[] write(final List<List<Token>> tokens,
+      final SentenceConsumer consumer) throws IOException {
+    final int[] counts = new int[2];
+    for (final List<Token> sentence : tokens) {
+      write(sentence, consumer, counts);
+    }
+    consumer.finish();
+    return counts;
+  }
+
+  /**
+   * Pass the tokens of a sentence to the consumer and count them.
+   */
+  private static void write(final List<Token> sentence,
+      final SentenceConsumer consumer, final int[] counts)
+      throws IOException {
+    consumer.accept(sentence);
+    ++counts[0];
+    counts[1] += sentence.size();
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package eus.ixa.ixa.pipe.tok;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Collects requests for a short time and hands them to a handler together,
+ * so that the fixed cost of processing a request is paid once per batch. A
+ * batch starts with the first request waiting and is handed over when the
+ * window since that request has passed or the batch is full, so that no
+ * request waits longer than the window before it is processed. Batches are
+ * handled one after the other on the batcher thread.
+ *
+ * @author ragerri
+ * @version 2016-04-20
+ * @param <T>
+ *          the type of the requests
+ */
+public class RequestBatcher<T> implements AutoCloseable {
+
+  private static final Logger LOG = LogManager.getLogger(RequestBatcher.class);
+
+  /**
+   * Processes a batch of requests.
+   *
+   * @param <T>
+   *          the type of the requests
+   */
+  public interface BatchHandler<T> {
+    /**
+     * Process a batch; every request must be answered, also on failure.
+     * 
+     * @param batch
+     *          the requests
+     */
+    void handle(List<T> batch);
+  }
+
+  /**
+   * How often an idle batcher checks whether it has been closed.
+   */
+  private static final long CLOSE_CHECK_MILLIS = 100;
+
+  private final long windowNanos;
+  private final int maxBatch;
+  private final BatchHandler<T> handler;
+  private final BlockingQueue<T> queue;
+  private final Thread thread;
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong requests = new AtomicLong();
+  private volatile boolean closed;
+
+  /**
+   * Build a batcher and start its thread.
+   * 
+   * @param windowMillis
+   *          the maximum time the first request of a batch waits for others
+   * @param maxBatch
+   *          the maximum number of requests of a batch
+   * @param handler
+   *          the handler of the batches
+   */
+  public RequestBatcher(final long windowMillis, final int maxBatch,
+      final BatchHandler<T> handler) {
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    this.maxBatch = maxBatch;
+    this.handler = handler;
+    // requests arriving while a batch is handled wait for the next one;
+    // beyond a few batches the submitting thread waits
+    this.queue = new ArrayBlockingQueue<>(maxBatch * 4);
+    this.thread = new Thread(this::run, "ixa-pipe-tok-batcher");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Add a request to the next batch, waiting if too many are queued.
+   * 
+   * @param request
+   *          the request
+   * @throws InterruptedException
+   *           if interrupted while waiting
+   */
+  public void submit(final T request) throws InterruptedException {
+    if (closed) {
+      throw new IllegalStateException("Request batcher closed");
+    }
+    queue.put(request);
+  }
+
+  /**
+   * Get the number of batches handled.
+   * 
+   * @return the number of batches
+   */
+  public long getBatches() {
+    return batches.get();
+  }
+
+  /**
+   * Get the number of requests handled.
+   * 
+   * @return the number of requests
+   */
+  public long getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * Handle the requests already submitted and stop the batcher thread. If
+   * interrupted while waiting for the thread, the thread keeps handling the
+   * requests and the interrupt status is set again.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    try {
+      thread.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run() {
+    final List<T> batch = new ArrayList<>(maxBatch);
+    try {
+      while (!closed || !queue.isEmpty()) {
+        // the thread is not interrupted to stop it, as that would close the
+        // channels of the clients being answered
+        final T first = queue.poll(CLOSE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        final long deadline = System.nanoTime() + windowNanos;
+        while (batch.size() < maxBatch) {
+          if (queue.drainTo(batch, maxBatch - batch.size()) > 0) {
+            continue;
+          }
+          final long remaining = deadline - System.nanoTime();
+          if (closed || remaining <= 0) {
+            break;
+          }
+          final T request = queue.poll(Math.min(remaining,
+              TimeUnit.MILLISECONDS.toNanos(CLOSE_CHECK_MILLIS)),
+              TimeUnit.NANOSECONDS);
+          if (request != null) {
+            batch.add(request);
+          }
+        }
+        handle(batch);
+        batch.clear();
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void handle(final List<T> batch) {
+    batches.incrementAndGet();
+    requests.addAndGet(batch.size());
+    try {
+      handler.handle(new ArrayList<>(batch));
+    } catch (final RuntimeException e) {
+      LOG.error("Failed to handle a batch of {} requests", batch.size(), e);
+    }
+  }
+}
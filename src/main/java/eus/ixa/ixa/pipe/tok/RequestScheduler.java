@@ -0,0 +1,370 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package eus.ixa.ixa.pipe.tok;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Schedules requests on a pool of worker threads fairly across clients and
+ * without letting large documents block small ones.
+ * <p>
+ * Requests up to a maximum size go to the fast lane, the others to the large
+ * lane. Workers always take from the fast lane first, and at most all but
+ * one worker work on large requests at the same time, so that there is
+ * always a worker for small requests. Within each lane every client has its
+ * own queue and the clients take turns by deficit round robin: a client is
+ * served at most one request per turn, and only once its credit, which grows
+ * by {@link #QUANTUM} characters every turn, covers the size of the request.
+ * A client sending many documents, or huge ones, thus gets the same share of
+ * the workers as any other client. Requests of the same client are processed
+ * in the order they were submitted.
+ *
+ * @author ragerri
+ * @version 2016-04-20
+ * @param <T>
+ *          the type of the requests
+ */
+public class RequestScheduler<T> implements AutoCloseable {
+
+  private static final Logger LOG = LogManager
+      .getLogger(RequestScheduler.class);
+
+  /**
+   * Characters of credit a client earns in each turn.
+   */
+  public static final long QUANTUM = 1 << 20;
+
+  /**
+   * The lanes of the scheduler.
+   */
+  public enum Lane {
+    FAST, LARGE
+  }
+
+  /**
+   * Processes a request; it must answer the client, also on failure.
+   *
+   * @param <T>
+   *          the type of the requests
+   */
+  public interface RequestHandler<T> {
+    /**
+     * Process a request.
+     * 
+     * @param request
+     *          the request
+     */
+    void handle(T request);
+  }
+
+  /**
+   * A queued request.
+   */
+  private static final class Entry<T> {
+    private final T request;
+    private final long size;
+    private final long submitted = System.nanoTime();
+
+    private Entry(final T request, final long size) {
+      this.request = request;
+      this.size = size;
+    }
+  }
+
+  /**
+   * The queue of a client in a lane.
+   */
+  private static final class ClientQueue<T> {
+    private final String client;
+    private final ArrayDeque<Entry<T>> entries = new ArrayDeque<>();
+    private long deficit;
+
+    private ClientQueue(final String client) {
+      this.client = client;
+    }
+  }
+
+  /**
+   * The client queues of a lane and its statistics.
+   */
+  private static final class LaneQueue<T> {
+    private final Map<String, ClientQueue<T>> clients = new HashMap<>();
+    private final ArrayDeque<ClientQueue<T>> active = new ArrayDeque<>();
+    private int depth;
+    private long requests;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+
+    private void add(final String client, final Entry<T> entry) {
+      ClientQueue<T> queue = clients.get(client);
+      if (queue == null) {
+        queue = new ClientQueue<>(client);
+        clients.put(client, queue);
+        active.addLast(queue);
+      }
+      queue.entries.addLast(entry);
+      depth++;
+    }
+
+    /**
+     * Take the next request by deficit round robin.
+     */
+    private Entry<T> poll() {
+      while (!active.isEmpty()) {
+        final ClientQueue<T> queue = active.peekFirst();
+        final Entry<T> head = queue.entries.peekFirst();
+        active.pollFirst();
+        if (queue.deficit < head.size) {
+          // not enough credit yet, wait for the next turn
+          queue.deficit += QUANTUM;
+          active.addLast(queue);
+          continue;
+        }
+        queue.deficit -= head.size;
+        queue.entries.pollFirst();
+        if (queue.entries.isEmpty()) {
+          clients.remove(queue.client);
+        } else {
+          active.addLast(queue);
+        }
+        depth--;
+        final long wait = System.nanoTime() - head.submitted;
+        requests++;
+        totalWaitNanos += wait;
+        maxWaitNanos = Math.max(maxWaitNanos, wait);
+        return head;
+      }
+      return null;
+    }
+  }
+
+  private final long fastLaneMaxSize;
+  private final int maxLargeInFlight;
+  private final RequestHandler<T> handler;
+  private final LaneQueue<T> fast = new LaneQueue<>();
+  private final LaneQueue<T> large = new LaneQueue<>();
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition available = lock.newCondition();
+  private final List<Thread> workers = new ArrayList<>();
+  private int largeInFlight;
+  private boolean closed;
+
+  /**
+   * Build a scheduler and start its workers.
+   * 
+   * @param threads
+   *          the number of worker threads, at least two for the fast lane to
+   *          have a worker of its own
+   * @param fastLaneMaxSize
+   *          the maximum size of the requests of the fast lane
+   * @param handler
+   *          the handler of the requests
+   * @throws IllegalArgumentException
+   *           if there are less than two threads
+   */
+  public RequestScheduler(final int threads, final long fastLaneMaxSize,
+      final RequestHandler<T> handler) {
+    if (threads < 2) {
+      throw new IllegalArgumentException(
+          "The request scheduler needs at least two threads, got " + threads);
+    }
+    this.fastLaneMaxSize = fastLaneMaxSize;
+    this.maxLargeInFlight = threads - 1;
+    this.handler = handler;
+    for (int i = 0; i < threads; i++) {
+      final Thread worker = new Thread(this::run,
+          "ixa-pipe-tok-worker-" + i);
+      worker.setDaemon(true);
+      workers.add(worker);
+      worker.start();
+    }
+  }
+
+  /**
+   * Queue a request.
+   * 
+   * @param client
+   *          the client the request comes from
+   * @param size
+   *          the size of the request, in characters
+   * @param request
+   *          the request
+   */
+  public void submit(final String client, final long size, final T request) {
+    lock.lock();
+    try {
+      if (closed) {
+        throw new IllegalStateException("Request scheduler closed");
+      }
+      getLane(size <= fastLaneMaxSize ? Lane.FAST : Lane.LARGE).add(client,
+          new Entry<>(request, size));
+      available.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of requests waiting in a lane.
+   * 
+   * @param lane
+   *          the lane
+   * @return the number of requests
+   */
+  public int getDepth(final Lane lane) {
+    lock.lock();
+    try {
+      return getLane(lane).depth;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of requests taken from a lane.
+   * 
+   * @param lane
+   *          the lane
+   * @return the number of requests
+   */
+  public long getRequests(final Lane lane) {
+    lock.lock();
+    try {
+      return getLane(lane).requests;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the mean time the requests taken from a lane waited.
+   * 
+   * @param lane
+   *          the lane
+   * @return the mean wait in milliseconds
+   */
+  public double getMeanWaitMillis(final Lane lane) {
+    lock.lock();
+    try {
+      final LaneQueue<T> queue = getLane(lane);
+      return queue.requests == 0 ? 0
+          : queue.totalWaitNanos / 1e6 / queue.requests;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the longest time a request taken from a lane waited.
+   * 
+   * @param lane
+   *          the lane
+   * @return the maximum wait in milliseconds
+   */
+  public long getMaxWaitMillis(final Lane lane) {
+    lock.lock();
+    try {
+      return TimeUnit.NANOSECONDS.toMillis(getLane(lane).maxWaitNanos);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Process the requests already queued and stop the workers. If interrupted
+   * while waiting for the workers, the workers keep processing the requests
+   * and the interrupt status is set again.
+   */
+  @Override
+  public void close() {
+    lock.lock();
+    try {
+      closed = true;
+      available.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    try {
+      for (final Thread worker : workers) {
+        worker.join();
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private LaneQueue<T> getLane(final Lane lane) {
+    return lane == Lane.FAST ? fast : large;
+  }
+
+  private void run() {
+    while (true) {
+      final Entry<T> entry;
+      final boolean isLarge;
+      lock.lock();
+      try {
+        Entry<T> next = fast.poll();
+        while (next == null) {
+          if (largeInFlight < maxLargeInFlight) {
+            next = large.poll();
+          }
+          if (next != null) {
+            break;
+          }
+          if (closed && fast.depth == 0 && large.depth == 0) {
+            return;
+          }
+          available.awaitUninterruptibly();
+          next = fast.poll();
+        }
+        isLarge = next.size > fastLaneMaxSize;
+        if (isLarge) {
+          largeInFlight++;
+        }
+        entry = next;
+      } finally {
+        lock.unlock();
+      }
+      try {
+        handler.handle(entry.request);
+      } catch (final RuntimeException e) {
+        LOG.error("Failed to handle a request", e);
+      } finally {
+        if (isLarge) {
+          lock.lock();
+          try {
+            largeInFlight--;
+            available.signal();
+          } finally {
+            lock.unlock();
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.tok;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * In-memory cache of rendered tokenizer output keyed by a hash of the input
+ * text and of the options that change the output. The cache is bounded by an
+ * estimate of the bytes it holds and evicts the least recently used entries
+ * first.
+ *
+ * @author ragerri
+ * @version 2016-04-20
+ */
+public class ResultCache {
+
+  /**
+   * The options which change the output for a given input.
+   */
+  private static final String[] OPTIONS = { "language", "normalize",
+      "untokenizable", "hardParagraph", "noseg", "outputFormat", "offsets",
+      "inputkaf", "notok", "kafversion", "formats" };
+  /**
+   * Estimated fixed cost in bytes of every entry: map node, key and String
+   * headers.
+   */
+  private static final int ENTRY_OVERHEAD = 256;
+
+  private final long maxBytes;
+  private final LinkedHashMap<String, String> entries = new LinkedHashMap<>(
+      16, 0.75f, true);
+  private long bytes = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  /**
+   * Build a cache holding at most the given number of bytes.
+   *
+   * @param maxBytes
+   *          the maximum size of the cache in bytes
+   */
+  public ResultCache(final long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Compute the cache key of an input text and its options.
+   *
+   * @param text
+   *          the input text
+   * @param properties
+   *          the options
+   * @return the hex encoded SHA-256 hash of the options and the text
+   */
+  public static String key(final String text, final Properties properties) {
+    final StringBuilder options = new StringBuilder();
+    for (final String option : OPTIONS) {
+      options.append(option).append('=')
+          .append(properties.getProperty(option, "")).append('\n');
+    }
+    try {
+      final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(options.toString().getBytes(StandardCharsets.UTF_8));
+      digest.update(text.getBytes(StandardCharsets.UTF_8));
+      final StringBuilder sb = new StringBuilder();
+      for (final byte b : digest.digest()) {
+        sb.append(String.format("%02x", b));
+      }
+      return sb.toString();
+    } catch (final NoSuchAlgorithmException e) {
+      // every JVM provides SHA-256
+      throw new AssertionError("SHA-256 not supported");
+    }
+  }
+
+  /**
+   * Get the output stored for a key.
+   *
+   * @param key
+   *          the key
+   * @return the output or null if it is not in the cache
+   */
+  public synchronized String get(final String key) {
+    final String result = entries.get(key);
+    if (result == null) {
+      ++misses;
+    } else {
+      ++hits;
+    }
+    return result;
+  }
+
+  /**
+   * Store the output for a key, evicting the least recently used entries if
+   * the cache gets too big. Outputs bigger than the cache are not stored.
+   *
+   * @param key
+   *          the key
+   * @param result
+   *          the output
+   */
+  public synchronized void put(final String key, final String result) {
+    final long size = weigh(key, result);
+    if (size > maxBytes) {
+      return;
+    }
+    final String previous = entries.put(key, result);
+    if (previous != null) {
+      bytes -= weigh(key, previous);
+    }
+    bytes += size;
+    final Iterator<Map.Entry<String, String>> iterator = entries.entrySet()
+        .iterator();
+    while (bytes > maxBytes && iterator.hasNext()) {
+      final Map.Entry<String, String> eldest = iterator.next();
+      bytes -= weigh(eldest.getKey(), eldest.getValue());
+      iterator.remove();
+      ++evictions;
+    }
+  }
+
+  private static long weigh(final String key, final String result) {
+    return ENTRY_OVERHEAD + 2L * (key.length() + result.length());
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  public synchronized int getSize() {
+    return entries.size();
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+}
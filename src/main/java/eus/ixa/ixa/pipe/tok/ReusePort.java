@@ -0,0 +1,137 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package eus.ixa.ixa.pipe.tok;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketOption;
+import java.util.Set;
+
+/**
+ * TCP server sockets with the {@code SO_REUSEPORT} option, so that several
+ * server processes listen on the same port and the kernel balances the
+ * connections between them. A new server can then be started before the old
+ * one is stopped, and a host can run one server per group of cores on a
+ * single port. The option is only available from Java 9 on and, for TCP, on
+ * Linux and some BSDs; it is looked up at runtime so that ixa-pipe-tok still
+ * builds and runs on Java 8.
+ *
+ * @author ragerri
+ * @version 2016-04-20
+ */
+public final class ReusePort {
+
+  private ReusePort() {
+  }
+
+  /**
+   * Whether server sockets of the running JVM and operating system support
+   * {@code SO_REUSEPORT}.
+   *
+   * @return true if supported
+   */
+  public static boolean isSupported() {
+    try (ServerSocket server = new ServerSocket()) {
+      return getOption(server) != null;
+    } catch (final IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Listen on a port shared with other servers setting the same option.
+   *
+   * @param port
+   *          the port
+   * @return the server socket
+   * @throws IOException
+   *           if the socket cannot be bound
+   */
+  public static ServerSocket bind(final int port) throws IOException {
+    final ServerSocket server = new ServerSocket();
+    try {
+      final SocketOption<?> option = getOption(server);
+      if (option == null) {
+        throw new UnsupportedOperationException(
+            "SO_REUSEPORT requires Java 9 or later on Linux or BSD");
+      }
+      invoke(server, "setOption", option, Boolean.TRUE);
+      server.bind(new InetSocketAddress(port));
+    } catch (final IOException | RuntimeException e) {
+      server.close();
+      throw e;
+    }
+    return server;
+  }
+
+  /**
+   * Get the SO_REUSEPORT option if the server socket supports it, from
+   * {@code StandardSocketOptions} or else from
+   * {@code jdk.net.ExtendedSocketOptions}.
+   */
+  private static SocketOption<?> getOption(final ServerSocket server)
+      throws IOException {
+    for (final String type : new String[] { "java.net.StandardSocketOptions",
+        "jdk.net.ExtendedSocketOptions" }) {
+      final SocketOption<?> option;
+      try {
+        option = (SocketOption<?>) Class.forName(type)
+            .getField("SO_REUSEPORT").get(null);
+      } catch (final ClassNotFoundException | NoSuchFieldException
+          | IllegalAccessException e) {
+        continue;
+      }
+      final Set<?> supported;
+      try {
+        supported = (Set<?>) invoke(server, "supportedOptions");
+      } catch (final UnsupportedOperationException e) {
+        return null;
+      }
+      return supported.contains(option) ? option : null;
+    }
+    return null;
+  }
+
+  /**
+   * Call a public method of the server socket.
+   */
+  private static Object invoke(final ServerSocket server, final String name,
+      final Object... arguments) throws IOException {
+    try {
+      final Method method = arguments.length == 0
+          ? ServerSocket.class.getMethod(name)
+          : ServerSocket.class.getMethod(name, SocketOption.class,
+              Object.class);
+      return method.invoke(server, arguments);
+    } catch (final NoSuchMethodException | IllegalAccessException e) {
+      throw new UnsupportedOperationException(
+          "SO_REUSEPORT requires Java 9 or later on Linux or BSD");
+    } catch (final InvocationTargetException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package eus.ixa.ixa.pipe.tok;
+
+import java.util.Properties;
+
+import eus.ixa.ixa.pipe.ml.tok.RuleBasedSegmenter;
+import eus.ixa.ixa.pipe.ml.tok.RuleBasedTokenizer;
+import eus.ixa.ixa.pipe.ml.tok.SentenceSegmenter;
+import eus.ixa.ixa.pipe.ml.tok.Tokenizer;
+
+/**
+ * The rule-based segmenter and tokenizer of ixa-pipe-ml, the default backend.
+ *
+ * @author ragerri
+ * @version 2016-04-20
+ */
+public class RuleBasedBackend implements TokenizerBackend {
+
+  /**
+   * The name of the backend.
+   */
+  public static final String NAME = "rule";
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public boolean supports(final Properties properties) {
+    return true;
+  }
+
+  @Override
+  public SentenceSegmenter newSegmenter(final String text,
+      final Properties properties) {
+    return new RuleBasedSegmenter(text, properties);
+  }
+
+  @Override
+  public Tokenizer newTokenizer(final String text,
+      final Properties properties) {
+    return new RuleBasedTokenizer(text, properties);
+  }
+}
@@ -17,25 +17,81 @@
 package eus.ixa.ixa.pipe.tok;
 
 import eus.ixa.ixa.pipe.cli.CLI;
+import eus.ixa.ixa.pipe.ml.tok.Token;
 import ixa.kaflib.KAFDocument;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.io.CharStreams;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jdom2.JDOMException;
 
 /**
- * The tokenizer TCP server class.
+ * The tokenizer TCP server class. If the warmup option is chosen, a bundled
+ * multilingual corpus is run through every output format of the configured
+ * language before the port is opened, so that the first requests do not pay
+ * for interpreted or C1-compiled code. A client sending the {@code <STATUS>}
+ * line gets the readiness of the server back. If a cache size is given,
+ * rendered outputs are cached by input text and options so that documents
+ * sent again are not tokenized twice. An {@code <EDIT start="" end="">}
+ * request carrying a replacement text and the previous NAF document only
+ * tokenizes again the sentences touched by the edit. If a socket path is
+ * given instead of a port, the server listens on a Unix domain socket with
+ * the same protocol, for clients running on the same host.
+ * <p>
+ * Every request emits Flight Recorder events for the document and for the
+ * read, annotate and write stages. If a slow log directory is given, a
+ * sample of every document taking longer than the threshold to annotate is
+ * written to it. If several output formats are given, the document is
+ * tokenized once and the response is a multipart document with one part per
+ * format. If a batch window is given, small plain text requests are collected
+ * for up to that many milliseconds and tokenized together, see
+ * {@link RequestBatcher}. If an intern size is given, the token forms of every document are
+ * shared through a {@link TokenInterner}. If a number of threads is given,
+ * at least two, requests are read on a bounded pool of threads and answered
+ * by a {@link RequestScheduler}, which shares the threads fairly between
+ * connections and keeps a fast lane for small documents; otherwise requests
+ * are answered one at a time.
+ * <p>
+ * If the reuse port option is chosen, the port is bound with
+ * {@code SO_REUSEPORT}, see {@link ReusePort}, so that several servers share
+ * it. When the JVM is asked to stop, the server stops accepting connections
+ * and reports it is not ready, and the requests already accepted are answered
+ * before it exits, for up to the drain timeout; a new server can thus take
+ * over the port before the old one is stopped.
  * 
  * @author ragerri
  * @version 2016-04-20
@@ -44,18 +100,134 @@ public class RuleBasedTokenizerServer {
 
   private static final Logger LOG = LogManager.getLogger(RuleBasedTokenizerServer.class);
 
+  /**
+   * The line a client sends to ask for the status of the server.
+   */
+  public static final String STATUS_REQUEST = "<STATUS>";
+  /**
+   * The header of an edit request, followed by the replacement text, the
+   * {@code </EDIT>} line and the NAF document before the edit.
+   */
+  private static final Pattern EDIT_REQUEST = Pattern
+      .compile("^<EDIT start=\"(\\d+)\" end=\"(\\d+)\">\n");
+  private static final String END_OF_EDIT = "</EDIT>\n";
+  /**
+   * Number of threads reading requests for each thread answering them.
+   */
+  private static final int READERS_PER_THREAD = 4;
+  /**
+   * The languages of the bundled warm-up corpus.
+   */
+  private static final String[] WARMUP_LANGUAGES = { "ca", "de", "en", "es",
+      "eu", "fr", "gl", "it", "nl", "ru" };
+  /**
+   * Relative throughput change between two rounds below which the warm-up
+   * considers a round stable.
+   */
+  private static final double WARMUP_TOLERANCE = 0.05;
+  /**
+   * Number of consecutive stable rounds after which warm-up finishes.
+   */
+  private static final int WARMUP_STABLE_ROUNDS = 3;
+  /**
+   * The linguistic processor element added by the tokenizer to a NAF header.
+   */
+  private static final Pattern TOKENIZER_LP = Pattern
+      .compile("<lp name=\"ixa-pipe-tok-[^\"]*\"[^>]*>");
+  private static final Pattern TIMESTAMP = Pattern
+      .compile("((?:begin|end)Timestamp=\")[^\"]*(\")");
+
   /**
    * Get dynamically the version of ixa-pipe-tok by looking at the MANIFEST
    * file.
    */
-  private final String version = CLI.class.getPackage()
+  private static final String VERSION = CLI.class.getPackage()
       .getImplementationVersion();
   /**
    * Get the git commit of the ixa-pipe-tok compiled by looking at the MANIFEST
    * file.
    */
-  private final String commit = CLI.class.getPackage()
+  private static final String COMMIT = CLI.class.getPackage()
       .getSpecificationVersion();
+  /**
+   * Whether the server is warmed up and listening.
+   */
+  private volatile boolean ready = false;
+  /**
+   * Time spent warming up, in milliseconds.
+   */
+  private long warmupMillis = 0;
+  /**
+   * The cache of rendered outputs, null if caching is not enabled.
+   */
+  private ResultCache cache;
+  /**
+   * The cache of tokenized sentences, null if caching is not enabled.
+   */
+  private SentenceCache sentenceCache;
+  /**
+   * The interner of token forms, null if interning is not enabled.
+   */
+  private TokenInterner interner;
+  /**
+   * The log of slow documents, null if not enabled.
+   */
+  private SlowDocumentLog slowDocumentLog;
+  /**
+   * The batcher of small requests, null if batching is not enabled.
+   */
+  private RequestBatcher<PendingRequest> batcher;
+  /**
+   * Maximum number of characters of a batched request.
+   */
+  private int batchMaxLength;
+  /**
+   * The scheduler of requests, null if requests are answered one at a time.
+   */
+  private RequestScheduler<PendingRequest> scheduler;
+  /**
+   * The threads reading requests, null if there is no scheduler.
+   */
+  private ExecutorService readers;
+  /**
+   * Number of connections accepted on the Unix domain socket, to tell its
+   * clients apart.
+   */
+  private long unixConnections;
+  /**
+   * Number of connections accepted on the TCP port, to tell its clients
+   * apart: clients behind the same address, such as every local client, are
+   * not the same client.
+   */
+  private long tcpConnections;
+  /**
+   * Whether the server has been asked to stop accepting connections.
+   */
+  private volatile boolean stopping = false;
+  /**
+   * Released once the requests accepted before stopping have been answered.
+   */
+  private final CountDownLatch drained = new CountDownLatch(1);
+
+  /**
+   * A request read from a client, waiting in a batch or in the scheduler,
+   * with the connection to answer it on.
+   */
+  private static final class PendingRequest {
+    private final Closeable connection;
+    private final BufferedWriter outToClient;
+    private final String text;
+    private final DocumentEvent event;
+
+    private PendingRequest(final Closeable connection,
+        final BufferedWriter outToClient, final String text,
+        final DocumentEvent event) {
+      this.connection = connection;
+      this.outToClient = outToClient;
+      this.text = text;
+      this.event = event;
+    }
+  }
 
   /**
    * Construct a RuleBasedTokenizer server.
@@ -65,57 +237,646 @@ public class RuleBasedTokenizerServer {
    */
   public RuleBasedTokenizerServer(final Properties properties) {
 
-    Integer port = Integer.parseInt(properties.getProperty("port"));
-    String result;
-    ServerSocket socketServer = null;
-    Socket activeSocket;
-    BufferedReader inFromClient = null;
-    BufferedWriter outToClient = null;
+    final String socketPath = properties.getProperty("socket");
+    Closeable socketServer = null;
+    // fail on unknown formats before listening
+    LOG.info("-> Output formats {}", Annotate.getOutputFormats(properties));
+    LOG.info("-> Tokenizer backend {}",
+        TokenizerBackends.get(properties).getName());
 
+    long cacheSize = Long.parseLong(properties.getProperty("cacheSize", "0"));
+    if (cacheSize > 0) {
+      cache = new ResultCache(cacheSize * 1024 * 1024);
+      LOG.info("-> Caching up to {} MB of results", cacheSize);
+    }
+    int sentenceCacheSize = Integer
+        .parseInt(properties.getProperty("sentenceCache", "0"));
+    if (sentenceCacheSize > 0) {
+      sentenceCache = new SentenceCache(sentenceCacheSize);
+      LOG.info("-> Caching up to {} tokenized sentences", sentenceCacheSize);
+    }
+    int internSize = Integer.parseInt(properties.getProperty("intern", "0"));
+    if (internSize > 0) {
+      interner = new TokenInterner(internSize);
+      LOG.info("-> Interning token forms in {} slots", interner.getSize());
+    }
+    if (Boolean.valueOf(properties.getProperty("warmup"))) {
+      warmUp(properties);
+    }
+    final String slowLog = properties.getProperty("slowLog");
+    if (slowLog != null) {
+      try {
+        slowDocumentLog = new SlowDocumentLog(Paths.get(slowLog),
+            Long.parseLong(properties.getProperty("slowThreshold", "1000")),
+            Integer.parseInt(properties.getProperty("slowSampleSize", "65536")));
+        LOG.info("-> Logging documents slower than {} ms to {}",
+            slowDocumentLog.getThresholdMillis(), slowLog);
+      } catch (IOException e) {
+        LOG.error("-> Could not create the slow document log {}", slowLog, e);
+      }
+    }
+    final long batchWindow = Long
+        .parseLong(properties.getProperty("batchWindow", "0"));
+    if (batchWindow > 0) {
+      batchMaxLength = Integer
+          .parseInt(properties.getProperty("batchMaxLength", "1024"));
+      batcher = new RequestBatcher<>(batchWindow,
+          Integer.parseInt(properties.getProperty("batchSize", "64")),
+          batch -> answerBatch(properties, batch));
+      LOG.info("-> Batching requests up to {} characters for up to {} ms",
+          batchMaxLength, batchWindow);
+    }
+    int threads = Integer.parseInt(properties.getProperty("threads", "0"));
+    if (threads > 0) {
+      if (threads < 2) {
+        // one thread is kept for the fast lane
+        LOG.info("-> Answering requests with 2 threads instead of {}",
+            threads);
+        threads = 2;
+      }
+      final long fastLaneMaxLength = Long
+          .parseLong(properties.getProperty("fastLaneMaxLength", "16384"));
+      scheduler = new RequestScheduler<>(threads, fastLaneMaxLength,
+          request -> answerAndClose(properties, request));
+      // when every reader is busy the accepting thread reads the request
+      // itself, so that no more connections are accepted meanwhile
+      readers = new ThreadPoolExecutor(0, READERS_PER_THREAD * threads, 60,
+          TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), task -> {
+            final Thread reader = new Thread(task, "ixa-pipe-tok-reader");
+            reader.setDaemon(true);
+            return reader;
+          }, new ThreadPoolExecutor.CallerRunsPolicy());
+      LOG.info("-> Answering requests with {} threads, fast lane up to {} "
+          + "characters", threads, fastLaneMaxLength);
+    }
+    final long drainTimeout = Long
+        .parseLong(properties.getProperty("drainTimeout", "30"));
     try {
-      LOG.info("-> Trying to listen {}... ", port);
-      socketServer = new ServerSocket(port);
-      LOG.info("-> Connected and listening to port {}", port);
-      while (true) {
-        try {
-          activeSocket = socketServer.accept();
-          inFromClient = new BufferedReader(
-              new InputStreamReader(activeSocket.getInputStream(), "UTF-8"));
-          outToClient = new BufferedWriter(
-              new OutputStreamWriter(activeSocket.getOutputStream(), "UTF-8"));
-          // get data from client
-          String stringFromClient = getClientData(inFromClient);
-          // annotate
-          result = getAnnotations(properties, stringFromClient);
-        } catch (JDOMException e) {
-          result = "\n-> ERROR: Badly formatted NAF document!!\n";
-          sendDataToClient(outToClient, result);
-          continue;
-        } catch (UnsupportedEncodingException e) {
-          result = "\n-> ERROR: Encoding not valid UTF-8!!\n";
-          sendDataToClient(outToClient, result);
-          continue;
-        } catch (IOException e) {
-          result = "\n -> ERROR: Input data not correct!!\n";
-          sendDataToClient(outToClient, result);
-          continue;
+      if (socketPath != null) {
+        LOG.info("-> Trying to listen {}... ", socketPath);
+        final ServerSocketChannel unixServer = UnixSockets.bind(socketPath);
+        socketServer = unixServer;
+        addShutdownHook(unixServer, drainTimeout);
+        ready = true;
+        LOG.info("-> Connected and listening to socket {}", socketPath);
+        while (!stopping) {
+          try {
+            final SocketChannel channel = unixServer.accept();
+            accept(properties, "unix-" + unixConnections++, channel,
+                Channels.newInputStream(channel),
+                Channels.newOutputStream(channel));
+          } catch (IOException e) {
+            if (!stopping) {
+              LOG.error("IOException", e);
+            }
+          }
+        }
+      } else {
+        Integer port = Integer.parseInt(properties.getProperty("port"));
+        LOG.info("-> Trying to listen {}... ", port);
+        final ServerSocket tcpServer;
+        if (Boolean.valueOf(properties.getProperty("reusePort"))) {
+          tcpServer = ReusePort.bind(port);
+          LOG.info("-> Sharing port {} with SO_REUSEPORT", port);
+        } else {
+          tcpServer = new ServerSocket(port);
+        }
+        socketServer = tcpServer;
+        addShutdownHook(tcpServer, drainTimeout);
+        ready = true;
+        LOG.info("-> Connected and listening to port {}", port);
+        while (!stopping) {
+          try {
+            final Socket activeSocket = tcpServer.accept();
+            accept(properties, "tcp-" + tcpConnections++, activeSocket, activeSocket.getInputStream(),
+                activeSocket.getOutputStream());
+          } catch (IOException e) {
+            if (!stopping) {
+              LOG.error("IOException", e);
+            }
+          }
         }
-        // send data to server after all exceptions and close the outToClient
-        sendDataToClient(outToClient, result);
-        // close the resources
-        inFromClient.close();
-        activeSocket.close();
-      } // end of processing block
+      }
     } catch (IOException e) {
       LOG.error("-> IOException due to failing to create the TCP socket or to wrongly provided model path", e);
     } finally {
       LOG.info("closing tcp socket...");
+      try {
+        if (socketServer != null) {
+          socketServer.close();
+        }
+        // requests still being read go to the scheduler or the batcher, so
+        // those are closed last
+        if (readers != null) {
+          readers.shutdown();
+          readers.awaitTermination(drainTimeout, TimeUnit.SECONDS);
+        }
+        if (scheduler != null) {
+          scheduler.close();
+        }
+        if (batcher != null) {
+          batcher.close();
+        }
+        // only the socket this server bound is removed
+        if (socketPath != null && socketServer != null) {
+          Files.deleteIfExists(Paths.get(socketPath));
+        }
+      } catch (IOException e) {
+        LOG.error("IOException", e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      drained.countDown();
+    }
+  }
+
+  /**
+   * Stop accepting connections when the JVM is asked to stop, and keep it
+   * running until the accepted requests are answered or the drain timeout
+   * runs out.
+   * 
+   * @param socketServer
+   *          the listening socket
+   * @param drainTimeout
+   *          the maximum time to wait for the accepted requests, in seconds
+   */
+  private void addShutdownHook(final Closeable socketServer,
+      final long drainTimeout) {
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      LOG.info("-> Stopping, answering the accepted requests...");
+      stopping = true;
+      ready = false;
       try {
         socketServer.close();
+        if (!drained.await(drainTimeout, TimeUnit.SECONDS)) {
+          LOG.warn("-> Requests still unanswered after {} s", drainTimeout);
+        }
       } catch (IOException e) {
         LOG.error("IOException", e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
       }
+    }, "ixa-pipe-tok-shutdown"));
+  }
+
+  /**
+   * Serve a newly accepted connection: on the accepting thread if there is no
+   * scheduler, otherwise on a reader thread so that a slow client does not
+   * hold up the others.
+   * 
+   * @param properties
+   *          the server properties
+   * @param client
+   *          the client the connection comes from
+   * @param connection
+   *          the connection to the client
+   * @param input
+   *          the input stream from the client
+   * @param output
+   *          the output stream to the client
+   * @throws IOException
+   *           if the answer cannot be sent
+   */
+  private void accept(final Properties properties, final String client,
+      final Closeable connection, final InputStream input,
+      final OutputStream output) throws IOException {
+    if (readers == null) {
+      serve(properties, client, connection, input, output);
+      return;
     }
+    readers.execute(() -> {
+      try {
+        serve(properties, client, connection, input, output);
+      } catch (IOException | RuntimeException e) {
+        LOG.error("Failed to serve a request", e);
+      }
+    });
+  }
+
+  /**
+   * Answer the request of a connected client. Small annotation requests are
+   * handed to the batcher, if enabled, and other annotation requests to the
+   * scheduler, if enabled, which answer them and close their connection;
+   * status requests and, without a scheduler, every other request are
+   * answered and closed here.
+   * 
+   * @param properties
+   *          the server properties
+   * @param client
+   *          the client the connection comes from
+   * @param connection
+   *          the connection to the client
+   * @param input
+   *          the input stream from the client
+   * @param output
+   *          the output stream to the client
+   * @throws IOException
+   *           if the answer cannot be sent
+   */
+  private void serve(final Properties properties, final String client,
+      final Closeable connection, final InputStream input,
+      final OutputStream output) throws IOException {
+    boolean queued = false;
+    try {
+      final BufferedReader inFromClient = new BufferedReader(
+          new InputStreamReader(input, "UTF-8"));
+      final BufferedWriter outToClient = new BufferedWriter(
+          new OutputStreamWriter(output, "UTF-8"));
+      final String lang = properties.getProperty("language");
+      final DocumentEvent event = Tracing.beginDocument();
+      // get data from client
+      final StageEvent stageEvent = Tracing.beginStage();
+      final String stringFromClient = getClientData(inFromClient);
+      Tracing.endStage(stageEvent, "read", lang, stringFromClient.length(), 0,
+          null);
+      final PendingRequest request = new PendingRequest(connection,
+          outToClient, stringFromClient, event);
+      if (isBatchable(properties, stringFromClient)) {
+        try {
+          batcher.submit(request);
+          queued = true;
+          return;
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+      if (scheduler != null
+          && !stringFromClient.trim().equals(STATUS_REQUEST)) {
+        scheduler.submit(client, stringFromClient.length(), request);
+        queued = true;
+        return;
+      }
+      answer(properties, request);
+    } finally {
+      if (!queued) {
+        connection.close();
+      }
+    }
+  }
+
+  /**
+   * Answer a request and close its connection.
+   * 
+   * @param properties
+   *          the server properties
+   * @param request
+   *          the request
+   */
+  private void answerAndClose(final Properties properties,
+      final PendingRequest request) {
+    try {
+      answer(properties, request);
+    } catch (IOException e) {
+      LOG.error("IOException", e);
+    } finally {
+      try {
+        request.connection.close();
+      } catch (IOException e) {
+        LOG.error("IOException", e);
+      }
+    }
+  }
+
+  /**
+   * Annotate a request, or report the status, and send the result to the
+   * client.
+   * 
+   * @param properties
+   *          the server properties
+   * @param request
+   *          the request
+   * @throws IOException
+   *           if the answer cannot be sent
+   */
+  private void answer(final Properties properties,
+      final PendingRequest request) throws IOException {
+    final String lang = properties.getProperty("language");
+    final String stringFromClient = request.text;
+    String outputFormat = properties.getProperty("outputFormat");
+    String result;
+    StageEvent stageEvent = Tracing.beginStage();
+    final long start = System.nanoTime();
+    try {
+      if (stringFromClient.trim().equals(STATUS_REQUEST)) {
+        outputFormat = "status";
+        result = getStatus();
+      } else if (stringFromClient.startsWith("<EDIT ")) {
+        outputFormat = "edit";
+        result = getEditAnnotations(properties, stringFromClient);
+      } else {
+        // annotate
+        result = getCachedAnnotations(properties, stringFromClient);
+        if (slowDocumentLog != null) {
+          slowDocumentLog.record(stringFromClient,
+              (System.nanoTime() - start) / 1000000, lang, outputFormat);
+        }
+      }
+    } catch (JDOMException e) {
+      result = "\n-> ERROR: Badly formatted NAF document!!\n";
+    } catch (UnsupportedEncodingException e) {
+      result = "\n-> ERROR: Encoding not valid UTF-8!!\n";
+    } catch (IOException e) {
+      result = "\n -> ERROR: Input data not correct!!\n";
+    }
+    Tracing.endStage(stageEvent, "annotate", lang, stringFromClient.length(),
+        0, null);
+    // send data to server after all exceptions and close the outToClient
+    stageEvent = Tracing.beginStage();
+    sendDataToClient(request.outToClient, result);
+    Tracing.endStage(stageEvent, "write", lang, result.length(), 0, null);
+    Tracing.endDocument(request.event, "server", lang, outputFormat,
+        stringFromClient.length(), null);
+  }
+
+  /**
+   * Whether a request goes to the batcher: only small plain text annotation
+   * requests do.
+   */
+  private boolean isBatchable(final Properties properties,
+      final String stringFromClient) {
+    return batcher != null && stringFromClient.length() <= batchMaxLength
+        && !Boolean.valueOf(properties.getProperty("inputkaf"))
+        && !Boolean.valueOf(properties.getProperty("notok"))
+        && !stringFromClient.trim().equals(STATUS_REQUEST)
+        && !stringFromClient.startsWith("<EDIT ");
+  }
+
+  /**
+   * Annotate a batch of small requests and answer each client. The options
+   * are looked up once and the documents not in the cache are tokenized
+   * together by {@link Annotate#tokenize(List)}; each document still gets its
+   * own output and NAF document.
+   * 
+   * @param properties
+   *          the server properties
+   * @param batch
+   *          the requests
+   */
+  private void answerBatch(final Properties properties,
+      final List<PendingRequest> batch) {
+    final String lang = properties.getProperty("language");
+    final String kafVersion = properties.getProperty("kafversion");
+    final String outputFormat = properties.getProperty("outputFormat");
+    final boolean refreshTimestamps = Annotate.getOutputFormats(properties)
+        .contains("naf");
+    final String[] results = new String[batch.size()];
+    final String[] keys = new String[batch.size()];
+    // time spent on each request, which includes tokenizing the whole batch
+    final long[] millis = new long[batch.size()];
+    final List<Annotate> annotators = new ArrayList<>();
+    final List<Integer> annotated = new ArrayList<>();
+    final StageEvent stageEvent = Tracing.beginStage();
+    final long start = System.nanoTime();
+    long inputSize = 0;
+    for (int i = 0; i < batch.size(); i++) {
+      final String text = batch.get(i).text;
+      inputSize += text.length();
+      if (cache != null) {
+        keys[i] = ResultCache.key(text, properties);
+        results[i] = cache.get(keys[i]);
+        if (results[i] != null) {
+          if (refreshTimestamps) {
+            results[i] = refreshTimestamps(results[i]);
+          }
+          millis[i] = (System.nanoTime() - start) / 1000000;
+          continue;
+        }
+      }
+      annotators.add(new Annotate(new BufferedReader(new StringReader(text)),
+          properties, sentenceCache, interner));
+      annotated.add(i);
+    }
+    try {
+      Annotate.tokenize(annotators);
+      for (int j = 0; j < annotators.size(); j++) {
+        final int i = annotated.get(j);
+        results[i] = renderFormats(annotators.get(j),
+            new KAFDocument(lang, kafVersion), properties);
+        millis[i] = (System.nanoTime() - start) / 1000000;
+        if (cache != null) {
+          cache.put(keys[i], results[i]);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      LOG.error("Failed to annotate a batch of {} requests", batch.size(), e);
+      for (final int i : annotated) {
+        if (results[i] == null) {
+          results[i] = "\n -> ERROR: Input data not correct!!\n";
+          millis[i] = -1;
+        }
+      }
+    }
+    Tracing.endStage(stageEvent, "annotate", lang, inputSize, 0, null);
+    if (slowDocumentLog != null) {
+      for (int i = 0; i < batch.size(); i++) {
+        if (millis[i] >= 0) {
+          slowDocumentLog.record(batch.get(i).text, millis[i], lang,
+              outputFormat);
+        }
+      }
+    }
+    for (int i = 0; i < batch.size(); i++) {
+      final PendingRequest request = batch.get(i);
+      try {
+        final StageEvent writeEvent = Tracing.beginStage();
+        sendDataToClient(request.outToClient, results[i]);
+        Tracing.endStage(writeEvent, "write", lang, results[i].length(), 0,
+            null);
+      } catch (IOException e) {
+        LOG.error("IOException", e);
+      } finally {
+        try {
+          request.connection.close();
+        } catch (IOException e) {
+          LOG.error("IOException", e);
+        }
+      }
+      Tracing.endDocument(request.event, "server", lang, outputFormat,
+          request.text.length(), null);
+    }
+  }
+
+  /**
+   * Whether the server has finished warming up and is listening.
+   * 
+   * @return true if the server is ready
+   */
+  public boolean isReady() {
+    return ready;
+  }
+
+  /**
+   * Report the status of the server, one key=value pair per line.
+   * 
+   * @return the status
+   */
+  private String getStatus() {
+    final StringBuilder sb = new StringBuilder();
+    sb.append("ready=").append(ready).append("\n");
+    sb.append("warmupMillis=").append(warmupMillis).append("\n");
+    if (cache != null) {
+      sb.append("cacheHits=").append(cache.getHits()).append("\n");
+      sb.append("cacheMisses=").append(cache.getMisses()).append("\n");
+      sb.append("cacheEvictions=").append(cache.getEvictions()).append("\n");
+      sb.append("cacheEntries=").append(cache.getSize()).append("\n");
+      sb.append("cacheBytes=").append(cache.getBytes()).append("\n");
+      sb.append("cacheMaxBytes=").append(cache.getMaxBytes()).append("\n");
+    }
+    if (sentenceCache != null) {
+      sb.append("sentenceCacheHits=").append(sentenceCache.getHits())
+          .append("\n");
+      sb.append("sentenceCacheMisses=").append(sentenceCache.getMisses())
+          .append("\n");
+      sb.append("sentenceCacheEntries=").append(sentenceCache.getSize())
+          .append("\n");
+    }
+    if (interner != null) {
+      sb.append("internHits=").append(interner.getHits()).append("\n");
+      sb.append("internMisses=").append(interner.getMisses()).append("\n");
+      sb.append("internHitRate=")
+          .append(String.format("%.4f", interner.getHitRate())).append("\n");
+      sb.append("internBytesSaved=").append(interner.getBytesSaved())
+          .append("\n");
+    }
+    if (batcher != null) {
+      sb.append("batches=").append(batcher.getBatches()).append("\n");
+      sb.append("batchedRequests=").append(batcher.getRequests())
+          .append("\n");
+    }
+    if (scheduler != null) {
+      for (final RequestScheduler.Lane lane : RequestScheduler.Lane.values()) {
+        final String prefix = lane == RequestScheduler.Lane.FAST ? "fastLane"
+            : "largeLane";
+        sb.append(prefix).append("Depth=").append(scheduler.getDepth(lane))
+            .append("\n");
+        sb.append(prefix).append("Requests=")
+            .append(scheduler.getRequests(lane)).append("\n");
+        sb.append(prefix).append("MeanWaitMillis=")
+            .append(String.format("%.3f", scheduler.getMeanWaitMillis(lane)))
+            .append("\n");
+        sb.append(prefix).append("MaxWaitMillis=")
+            .append(scheduler.getMaxWaitMillis(lane)).append("\n");
+      }
+    }
+    if (slowDocumentLog != null) {
+      sb.append("slowDocuments=").append(slowDocumentLog.getRecorded())
+          .append("\n");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Run the bundled warm-up corpus through every output format of the
+   * configured language until throughput settles or the warm-up time runs
+   * out. The documents go through the caches and the interner like any
+   * request, so repeated warm-up documents are answered from them.
+   * 
+   * @param properties
+   *          the server properties
+   */
+  private void warmUp(final Properties properties) {
+    final long maxMillis = Long.parseLong(properties.getProperty("warmupTime"))
+        * 1000;
+    final List<String> corpus = loadWarmUpCorpus(properties);
+    final List<Properties> paths = getWarmUpPaths(properties);
+    LOG.info("-> Warming up {} output paths with {} documents...", paths.size(),
+        corpus.size());
+    final long start = System.nanoTime();
+    double previousRate = 0;
+    double rate = 0;
+    int stableRounds = 0;
+    int rounds = 0;
+    while (stableRounds < WARMUP_STABLE_ROUNDS
+        && (System.nanoTime() - start) / 1000000 < maxMillis) {
+      final long roundStart = System.nanoTime();
+      long chars = 0;
+      for (final Properties path : paths) {
+        for (final String document : corpus) {
+          try {
+            getCachedAnnotations(path, document);
+          } catch (IOException | JDOMException e) {
+            LOG.warn("-> Warm-up document failed", e);
+          }
+          chars += document.length();
+        }
+      }
+      rate = chars / ((System.nanoTime() - roundStart) / 1000000.0);
+      if (previousRate > 0
+          && Math.abs(rate - previousRate) / previousRate < WARMUP_TOLERANCE) {
+        ++stableRounds;
+      } else {
+        stableRounds = 0;
+      }
+      previousRate = rate;
+      ++rounds;
+    }
+    warmupMillis = (System.nanoTime() - start) / 1000000;
+    LOG.info("-> Warm-up finished after {} rounds in {} ms ({} chars/ms{})",
+        rounds, warmupMillis, String.format("%.1f", rate),
+        stableRounds < WARMUP_STABLE_ROUNDS ? ", not settled" : "");
+  }
+
+  /**
+   * Load the bundled warm-up corpus in the input format expected by the
+   * server.
+   * 
+   * @param properties
+   *          the server properties
+   * @return the warm-up documents
+   */
+  private List<String> loadWarmUpCorpus(final Properties properties) {
+    final List<String> corpus = new ArrayList<>();
+    final boolean inputKafRaw = Boolean
+        .valueOf(properties.getProperty("inputkaf"));
+    for (final String lang : WARMUP_LANGUAGES) {
+      final InputStream stream = RuleBasedTokenizerServer.class
+          .getResourceAsStream("/warmup/" + lang + ".txt");
+      if (stream == null) {
+        continue;
+      }
+      try (InputStreamReader reader = new InputStreamReader(stream, "UTF-8")) {
+        String text = CharStreams.toString(reader);
+        if (inputKafRaw) {
+          final KAFDocument kaf = new KAFDocument(
+              properties.getProperty("language"),
+              properties.getProperty("kafversion"));
+          kaf.setRawText(text);
+          text = kaf.toString();
+        }
+        corpus.add(text);
+      } catch (IOException e) {
+        LOG.error("IOException", e);
+      }
+    }
+    return corpus;
+  }
+
+  /**
+   * Build a copy of the server properties for every output format the server
+   * can produce for the configured language.
+   * 
+   * @param properties
+   *          the server properties
+   * @return the properties of each output path
+   */
+  private static List<Properties> getWarmUpPaths(final Properties properties) {
+    final List<Properties> paths = new ArrayList<>();
+    if (Boolean.valueOf(properties.getProperty("notok"))) {
+      paths.add(properties);
+      return paths;
+    }
+    final String[][] formats = { { "naf", "true" }, { "conll", "true" },
+        { "conll", "false" }, { "oneline", "true" } };
+    for (final String[] format : formats) {
+      final Properties path = new Properties();
+      path.putAll(properties);
+      path.remove("formats");
+      path.setProperty("outputFormat", format[0]);
+      path.setProperty("offsets", format[1]);
+      paths.add(path);
+    }
+    return paths;
   }
 
   /**
@@ -161,7 +922,124 @@ public class RuleBasedTokenizerServer {
   }
 
   /**
-   * Get tokens.
+   * Get tokens from the cache if caching is enabled and the same input was
+   * already tokenized with the same options. The timestamps of the tokenizer
+   * linguistic processor of cached NAF documents are set to the time of the
+   * request.
+   * 
+   * @param properties
+   *          the options
+   * @param stringFromClient
+   *          the original string
+   * @return the tokenized string
+   * @throws IOException
+   *           if io problems
+   * @throws JDOMException
+   *           if NAF problems
+   */
+  private String getCachedAnnotations(final Properties properties,
+      final String stringFromClient) throws IOException, JDOMException {
+    if (cache == null) {
+      return getAnnotations(properties, stringFromClient);
+    }
+    final String key = ResultCache.key(stringFromClient, properties);
+    String result = cache.get(key);
+    if (result == null) {
+      result = getAnnotations(properties, stringFromClient);
+      cache.put(key, result);
+    } else if (Boolean.valueOf(properties.getProperty("notok"))
+        || Annotate.getOutputFormats(properties).contains("naf")) {
+      result = refreshTimestamps(result);
+    }
+    return result;
+  }
+
+  /**
+   * Apply an edit to the raw text of a NAF document and tokenize it again.
+   * The sentences not touched by the edit come from the sentence cache.
+   * 
+   * @param properties
+   *          the options
+   * @param stringFromClient
+   *          the edit request
+   * @return the NAF document after the edit
+   * @throws IOException
+   *           if the request is not correct
+   * @throws JDOMException
+   *           if NAF problems
+   */
+  private String getEditAnnotations(final Properties properties,
+      final String stringFromClient) throws IOException, JDOMException {
+    final Matcher header = EDIT_REQUEST.matcher(stringFromClient);
+    if (!header.find()) {
+      throw new IOException("Badly formatted edit request");
+    }
+    final String body = stringFromClient.substring(header.end());
+    final int replacementEnd = body.startsWith(END_OF_EDIT) ? 0
+        : body.indexOf("\n" + END_OF_EDIT);
+    if (replacementEnd == -1) {
+      throw new IOException("Edit request without " + END_OF_EDIT.trim());
+    }
+    final int nafStart = body.indexOf(END_OF_EDIT, replacementEnd)
+        + END_OF_EDIT.length();
+    final KAFDocument previous = KAFDocument
+        .createFromStream(new StringReader(body.substring(nafStart)));
+    final String previousText = previous.getRawText();
+    if (previousText == null) {
+      throw new IOException("NAF document without raw layer");
+    }
+    final String text;
+    try {
+      text = new TextEdit(Integer.parseInt(header.group(1)),
+          Integer.parseInt(header.group(2)),
+          body.substring(0, replacementEnd)).apply(previousText);
+    } catch (IllegalArgumentException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+    final List<List<Token>> tokens = new Annotate(
+        new BufferedReader(new StringReader(text)), properties, sentenceCache,
+        interner).tokenize();
+    final String lang = properties.getProperty("language");
+    final KAFDocument kaf = new KAFDocument(previous.getLang(),
+        previous.getVersion());
+    kaf.setRawText(text);
+    final KAFDocument.LinguisticProcessor newLp = kaf.addLinguisticProcessor(
+        "text", "ixa-pipe-tok-" + lang, VERSION + "-" + COMMIT);
+    newLp.setBeginTimestamp();
+    Annotate.tokensToKAF(tokens, kaf);
+    newLp.setEndTimestamp();
+    return kaf.toString();
+  }
+
+  /**
+   * Set the timestamps of the last tokenizer linguistic processor of a NAF
+   * document to the current time.
+   * 
+   * @param naf
+   *          the NAF document
+   * @return the NAF document with new timestamps
+   */
+  private static String refreshTimestamps(final String naf) {
+    final Matcher lpMatcher = TOKENIZER_LP.matcher(naf);
+    int start = -1;
+    int end = -1;
+    while (lpMatcher.find()) {
+      start = lpMatcher.start();
+      end = lpMatcher.end();
+    }
+    if (start < 0) {
+      return naf;
+    }
+    final String timestamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ")
+        .format(new Date());
+    final String lp = TIMESTAMP.matcher(naf.substring(start, end))
+        .replaceAll("$1" + timestamp + "$2");
+    return naf.substring(0, start) + lp + naf.substring(end);
+  }
+
+  /**
+   * Tokenize a string from the client and render it in the output formats
+   * requested, as a multipart document if there are several.
    * 
    * @param properties
    *          the options
@@ -175,60 +1053,184 @@ public class RuleBasedTokenizerServer {
    */
   private String getAnnotations(final Properties properties,
       final String stringFromClient) throws IOException, JDOMException {
+    return toMultipartIfSeveral(
+        annotate(stringFromClient, properties, sentenceCache, interner));
+  }
 
-    BufferedReader breader;
+  /**
+   * Tokenize a document once and render it in every output format
+   * requested. The server and the {@link TokenizerService} share this
+   * rendering.
+   * 
+   * @param input
+   *          the text, a NAF document if the inputkaf option is chosen or an
+   *          already tokenized sentence per line if notok is chosen
+   * @param properties
+   *          the options
+   * @param sentenceCache
+   *          the sentence cache, or null
+   * @param interner
+   *          the token interner, or null
+   * @return the rendered output of each format, in the order requested
+   * @throws IOException
+   *           if io problems
+   * @throws JDOMException
+   *           if NAF problems
+   */
+  static Map<String, String> annotate(final String input,
+      final Properties properties, final SentenceCache sentenceCache,
+      final TokenInterner interner) throws IOException, JDOMException {
+    final String lang = properties.getProperty("language");
+    final String kafVersion = properties.getProperty("kafversion", "v1.naf");
     KAFDocument kaf;
-    String kafString = null;
-    String lang = properties.getProperty("language");
-    String outputFormat = properties.getProperty("outputFormat");
-    Boolean inputKafRaw = Boolean.valueOf(properties.getProperty("inputkaf"));
-    Boolean noTok = Boolean.valueOf(properties.getProperty("notok"));
-    String kafVersion = properties.getProperty("kafversion");
-    Boolean offsets = Boolean.valueOf(properties.getProperty("offsets"));
-    if (noTok) {
-      final BufferedReader noTokReader = new BufferedReader(
-          new StringReader(stringFromClient));
+    if (Boolean.valueOf(properties.getProperty("notok"))) {
       kaf = new KAFDocument(lang, kafVersion);
       final KAFDocument.LinguisticProcessor newLp = kaf.addLinguisticProcessor(
-          "text", "ixa-pipe-tok-notok-" + lang, version + "-" + commit);
+          "text", "ixa-pipe-tok-notok-" + lang, VERSION + "-" + COMMIT);
       newLp.setBeginTimestamp();
-      Annotate.tokensToKAF(noTokReader, kaf);
+      try (BufferedReader noTokReader = new BufferedReader(
+          new StringReader(input))) {
+        Annotate.tokensToKAF(noTokReader, kaf);
+      }
       newLp.setEndTimestamp();
-      kafString = kaf.toString();
-      noTokReader.close();
+      final Map<String, String> outputs = new LinkedHashMap<>();
+      outputs.put("naf", kaf.toString());
+      return outputs;
+    }
+    final String text;
+    if (Boolean.valueOf(properties.getProperty("inputkaf"))) {
+      kaf = KAFDocument.createFromStream(new StringReader(input));
+      text = kaf.getRawText();
     } else {
-      if (inputKafRaw) {
-        final BufferedReader kafReader = new BufferedReader(
-            new StringReader(stringFromClient));
-        kaf = KAFDocument.createFromStream(kafReader);
-        final String text = kaf.getRawText();
-        final StringReader stringReader = new StringReader(text);
-        breader = new BufferedReader(stringReader);
-      } else {
-        kaf = new KAFDocument(lang, kafVersion);
-        breader = new BufferedReader(new StringReader(stringFromClient));
-      }
-      final Annotate annotator = new Annotate(breader, properties);
-      if (outputFormat.equalsIgnoreCase("conll")) {
-        if (offsets) {
-          kafString = annotator.tokenizeToCoNLL();
-        } else {
-          kafString = annotator.tokenizeToCoNLLOffsets();
-        }
-      } else if (outputFormat.equalsIgnoreCase("oneline")) {
-        kafString = annotator.tokenizeToText();
+      kaf = new KAFDocument(lang, kafVersion);
+      text = input;
+    }
+    final Annotate annotator = new Annotate(
+        new BufferedReader(new StringReader(text)), properties, sentenceCache,
+        interner);
+    return render(annotator, kaf, Annotate.getOutputFormats(properties),
+        properties);
+  }
+
+  /**
+   * Render the tokens of an annotator in the output formats requested, as a
+   * multipart document if there are several.
+   * 
+   * @param annotator
+   *          the annotator
+   * @param kaf
+   *          the NAF document, used for the naf format
+   * @param properties
+   *          the options
+   * @return the rendered output
+   * @throws IOException
+   *           if io problems
+   */
+  private static String renderFormats(final Annotate annotator,
+      final KAFDocument kaf, final Properties properties) throws IOException {
+    return toMultipartIfSeveral(render(annotator, kaf,
+        Annotate.getOutputFormats(properties), properties));
+  }
+
+  /**
+   * Render the tokens of an annotator in several output formats; the text is
+   * only tokenized once, every format is rendered from the same tokens.
+   * 
+   * @param annotator
+   *          the annotator
+   * @param kaf
+   *          the NAF document, used for the naf format
+   * @param outputFormats
+   *          the output formats
+   * @param properties
+   *          the options
+   * @return the rendered output of each format, in the order given
+   * @throws IOException
+   *           if io problems
+   */
+  private static Map<String, String> render(final Annotate annotator,
+      final KAFDocument kaf, final List<String> outputFormats,
+      final Properties properties) throws IOException {
+    final Map<String, String> outputs = new LinkedHashMap<>();
+    for (final String outputFormat : outputFormats) {
+      outputs.put(outputFormat,
+          render(annotator, kaf, outputFormat, properties));
+    }
+    return outputs;
+  }
+
+  /**
+   * Render the tokens of an annotator in an output format.
+   * 
+   * @param annotator
+   *          the annotator
+   * @param kaf
+   *          the NAF document, used for the naf format
+   * @param outputFormat
+   *          the output format
+   * @param properties
+   *          the options
+   * @return the rendered output
+   * @throws IOException
+   *           if io problems
+   */
+  private static String render(final Annotate annotator,
+      final KAFDocument kaf, final String outputFormat,
+      final Properties properties) throws IOException {
+    if (outputFormat.equals("conll")) {
+      if (Boolean.valueOf(properties.getProperty("offsets", "true"))) {
+        return annotator.tokenizeToCoNLL();
       } else {
-        final KAFDocument.LinguisticProcessor newLp = kaf
-            .addLinguisticProcessor("text", "ixa-pipe-tok-" + lang,
-                version + "-" + commit);
-        newLp.setBeginTimestamp();
-        annotator.tokenizeToKAF(kaf);
-        newLp.setEndTimestamp();
-        kafString = kaf.toString();
+        return annotator.tokenizeToCoNLLOffsets();
       }
-      breader.close();
+    } else if (outputFormat.equals("oneline")) {
+      return annotator.tokenizeToText();
+    } else {
+      final KAFDocument.LinguisticProcessor newLp = kaf.addLinguisticProcessor(
+          "text", "ixa-pipe-tok-" + properties.getProperty("language"),
+          VERSION + "-" + COMMIT);
+      newLp.setBeginTimestamp();
+      annotator.tokenizeToKAF(kaf);
+      newLp.setEndTimestamp();
+      return kaf.toString();
+    }
+  }
+
+  /**
+   * Get the output of the only format requested, or a multipart document if
+   * there are several.
+   */
+  private static String toMultipartIfSeveral(
+      final Map<String, String> outputs) {
+    return outputs.size() == 1 ? outputs.values().iterator().next()
+        : toMultipart(outputs);
+  }
+
+  /**
+   * Build a multipart response with one part per output format. The first
+   * line gives the boundary which starts every part; each part has a
+   * Content-Type header with the name of the format, an empty line and the
+   * output.
+   * 
+   * @param outputs
+   *          the output of each format
+   * @return the multipart response
+   */
+  public static String toMultipart(final Map<String, String> outputs) {
+    final String boundary = "ixa-pipe-tok-" + UUID.randomUUID();
+    final StringBuilder sb = new StringBuilder();
+    sb.append("Content-Type: multipart/mixed; boundary=\"").append(boundary)
+        .append("\"\n");
+    for (final Map.Entry<String, String> output : outputs.entrySet()) {
+      sb.append("\n--").append(boundary).append("\n");
+      sb.append("Content-Type: ")
+          .append(output.getKey().equals("naf") ? "application/xml"
+              : "text/plain")
+          .append("; format=").append(output.getKey()).append("\n\n");
+      sb.append(output.getValue());
     }
-    return kafString;
+    sb.append("\n--").append(boundary).append("--\n");
+    return sb.toString();
   }
 
 }
@@ -0,0 +1,222 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.tok;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import eus.ixa.ixa.pipe.ml.tok.Token;
+
+/**
+ * Least recently used cache of tokenized sentences. Boilerplate such as cookie
+ * banners, footers or navigation text repeats the same sentences across
+ * documents; the tokens of those sentences are stored with offsets relative to
+ * the sentence, so that they can be placed at the position of the sentence in
+ * every document they appear in.
+ *
+ * @author ragerri
+ * @version 2016-04-20
+ */
+public class SentenceCache {
+
+  /**
+   * The options which change the tokens of a sentence.
+   */
+  private static final String[] OPTIONS = { "language", "normalize",
+      "untokenizable" };
+
+  private final Map<String, Entry> entries;
+  private long hits = 0;
+  private long misses = 0;
+
+  /**
+   * Build a cache holding at most the given number of sentences.
+   *
+   * @param maxSentences
+   *          the maximum number of sentences
+   */
+  public SentenceCache(final int maxSentences) {
+    this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(
+          final Map.Entry<String, Entry> eldest) {
+        return size() > maxSentences;
+      }
+    };
+  }
+
+  /**
+   * Build the part of the key which depends on the tokenizer configuration.
+   *
+   * @param properties
+   *          the options
+   * @return the configuration prefix of the keys
+   */
+  public static String configuration(final Properties properties) {
+    final StringBuilder sb = new StringBuilder();
+    for (final String option : OPTIONS) {
+      sb.append(properties.getProperty(option, "")).append('\t');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Get the tokens of a sentence.
+   *
+   * @param configuration
+   *          the tokenizer configuration
+   * @param sentence
+   *          the sentence
+   * @return the cached tokens or null if the sentence is not in the cache
+   */
+  public synchronized Entry get(final String configuration,
+      final String sentence) {
+    final Entry entry = entries.get(configuration + sentence);
+    if (entry == null) {
+      ++misses;
+    } else {
+      ++hits;
+    }
+    return entry;
+  }
+
+  /**
+   * Store the tokens of a sentence.
+   *
+   * @param configuration
+   *          the tokenizer configuration
+   * @param sentence
+   *          the sentence
+   * @param entry
+   *          the tokens
+   */
+  public synchronized void put(final String configuration,
+      final String sentence, final Entry entry) {
+    entries.put(configuration + sentence, entry);
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized int getSize() {
+    return entries.size();
+  }
+
+  /**
+   * The tokens of a sentence: their values and their offsets relative to the
+   * sentence. A sentence is only kept if the value of each token is the text
+   * of the sentence at its offset and the tokens cover every character of
+   * the sentence but whitespace. The tokenizer then finds each token right
+   * after the previous one and the whitespace following it, wherever the
+   * sentence is in a text.
+   */
+  public static class Entry {
+
+    private final String sentence;
+    private final String[] values;
+    private final int[] offsets;
+
+    private Entry(final String sentence, final String[] values,
+        final int[] offsets) {
+      this.sentence = sentence;
+      this.values = values;
+      this.offsets = offsets;
+    }
+
+    /**
+     * Build an entry from the tokens of a sentence.
+     *
+     * @param sentence
+     *          the sentence
+     * @param tokens
+     *          the tokens of the sentence
+     * @param sentenceOffset
+     *          the offset of the sentence in the text the tokens were found
+     *          in
+     * @return the entry, or null if the tokens are not the text of the
+     *         sentence
+     */
+    public static Entry of(final String sentence, final List<Token> tokens,
+        final int sentenceOffset) {
+      final String[] values = new String[tokens.size()];
+      final int[] offsets = new int[tokens.size()];
+      int end = 0;
+      for (int i = 0; i < values.length; i++) {
+        final Token token = tokens.get(i);
+        values[i] = token.getTokenValue();
+        offsets[i] = token.startOffset() - sentenceOffset;
+        if (values[i].isEmpty() || token.tokenLength() != values[i].length()
+            || offsets[i] < end || !isWhitespace(sentence, end, offsets[i])
+            || !sentence.startsWith(values[i], offsets[i])) {
+          return null;
+        }
+        end = offsets[i] + values[i].length();
+      }
+      if (!isWhitespace(sentence, end, sentence.length())) {
+        return null;
+      }
+      return new Entry(sentence, values, offsets);
+    }
+
+    private static boolean isWhitespace(final String sentence,
+        final int start, final int end) {
+      for (int i = start; i < end; i++) {
+        if (!Character.isWhitespace(sentence.charAt(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    public String getSentence() {
+      return sentence;
+    }
+
+    public int size() {
+      return values.length;
+    }
+
+    public String getValue(final int i) {
+      return values[i];
+    }
+
+    public int getOffset(final int i) {
+      return offsets[i];
+    }
+
+    /**
+     * Replace the token values by their interned forms.
+     *
+     * @param interner
+     *          the token interner
+     */
+    void intern(final TokenInterner interner) {
+      for (int i = 0; i < values.length; i++) {
+        values[i] = interner.intern(values[i]);
+      }
+    }
+  }
+}
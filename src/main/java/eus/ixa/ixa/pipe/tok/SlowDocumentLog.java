@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.tok;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps a sample of the documents which took longer than a threshold to
+ * tokenize, so that pathological inputs can be reproduced. Every slow
+ * document is written to its own file in the log directory, cut to a
+ * maximum number of characters, and reported in the log.
+ *
+ * @author ragerri
+ * @version 2016-04-20
+ */
+public class SlowDocumentLog {
+
+  private static final Logger LOG = LogManager.getLogger(SlowDocumentLog.class);
+
+  private final Path directory;
+  private final long thresholdMillis;
+  private final int maxSampleSize;
+  private final AtomicLong recorded = new AtomicLong();
+
+  /**
+   * Build a slow document log.
+   *
+   * @param directory
+   *          the directory of the samples, created if it does not exist
+   * @param thresholdMillis
+   *          the time in milliseconds above which a document is slow
+   * @param maxSampleSize
+   *          the maximum number of characters written of each document
+   * @throws IOException
+   *           if the directory cannot be created
+   */
+  public SlowDocumentLog(final Path directory, final long thresholdMillis,
+      final int maxSampleSize) throws IOException {
+    this.directory = Files.createDirectories(directory);
+    this.thresholdMillis = thresholdMillis;
+    this.maxSampleSize = maxSampleSize;
+  }
+
+  /**
+   * Write a sample of the document if it took longer than the threshold.
+   *
+   * @param input
+   *          the document as received
+   * @param millis
+   *          the time spent on the document
+   * @param language
+   *          the language
+   * @param outputFormat
+   *          the output format
+   * @return true if the document was slow
+   */
+  public boolean record(final String input, final long millis,
+      final String language, final String outputFormat) {
+    if (millis < thresholdMillis) {
+      return false;
+    }
+    final String sample = input.length() > maxSampleSize
+        ? input.substring(0, maxSampleSize) : input;
+    final String name = new SimpleDateFormat("yyyyMMdd-HHmmss.SSS")
+        .format(new Date()) + "-" + recorded.incrementAndGet() + "-" + millis
+        + "ms.txt";
+    final Path file = directory.resolve(name);
+    try {
+      Files.write(file, sample.getBytes(StandardCharsets.UTF_8));
+      LOG.warn(
+          "-> Slow document: {} ms for {} chars ({}, {}), first {} chars written to {}",
+          millis, input.length(), language, outputFormat, sample.length(), file);
+    } catch (final IOException e) {
+      LOG.error("-> Could not write slow document to {}", file, e);
+    }
+    return true;
+  }
+
+  /**
+   * The number of slow documents seen.
+   *
+   * @return the number of slow documents
+   */
+  public long getRecorded() {
+    return recorded.get();
+  }
+
+  public long getThresholdMillis() {
+    return thresholdMillis;
+  }
+}
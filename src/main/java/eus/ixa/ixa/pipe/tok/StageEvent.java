@@ -0,0 +1,54 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.tok;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for one stage of the processing of a document:
+ * segment, tokenize and render in {@link Annotate}, read, annotate and write
+ * in the {@link RuleBasedTokenizerServer}.
+ *
+ * @author ragerri
+ * @version 2016-04-20
+ */
+@Name("eus.ixa.ixa.pipe.tok.Stage")
+@Label("Stage")
+@Category("ixa-pipe-tok")
+@Description("A stage of the tokenization of a document")
+@StackTrace(false)
+class StageEvent extends jdk.jfr.Event {
+
+  @Label("Stage")
+  String stage;
+
+  @Label("Language")
+  String language;
+
+  @Label("Input Characters")
+  long inputSize;
+
+  @Label("Sentences")
+  int sentences;
+
+  @Label("Tokens")
+  int tokens;
+}
@@ -0,0 +1,88 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.tok;
+
+/**
+ * An edit of a text: the characters between a start and an end offset are
+ * replaced by a new string. Insertions have the same start and end offsets
+ * and deletions an empty replacement.
+ *
+ * @author ragerri
+ * @version 2016-04-20
+ */
+public class TextEdit {
+
+  private final int start;
+  private final int end;
+  private final String replacement;
+
+  /**
+   * Build an edit.
+   *
+   * @param start
+   *          the offset of the first replaced character
+   * @param end
+   *          the offset after the last replaced character
+   * @param replacement
+   *          the new text
+   */
+  public TextEdit(final int start, final int end, final String replacement) {
+    if (start < 0 || end < start) {
+      throw new IllegalArgumentException(
+          "Invalid edit range [" + start + ", " + end + ")");
+    }
+    this.start = start;
+    this.end = end;
+    this.replacement = replacement;
+  }
+
+  public int getStart() {
+    return start;
+  }
+
+  public int getEnd() {
+    return end;
+  }
+
+  public String getReplacement() {
+    return replacement;
+  }
+
+  /**
+   * The change in length of the text after the edit.
+   *
+   * @return the number of characters added, negative if removed
+   */
+  public int getDelta() {
+    return replacement.length() - (end - start);
+  }
+
+  /**
+   * Apply the edit to a text.
+   *
+   * @param text
+   *          the text
+   * @return the edited text
+   */
+  public String apply(final String text) {
+    if (end > text.length()) {
+      throw new IllegalArgumentException("Edit range [" + start + ", " + end
+          + ") outside of text of length " + text.length());
+    }
+    return text.substring(0, start) + replacement + text.substring(end);
+  }
+}
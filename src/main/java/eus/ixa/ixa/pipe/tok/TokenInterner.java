@@ -0,0 +1,163 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package eus.ixa.ixa.pipe.tok;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import eus.ixa.ixa.pipe.ml.tok.Token;
+
+/**
+ * Bounded table of token forms shared by every document, so that frequent
+ * forms such as punctuation, articles and other function words are stored
+ * once instead of once per token in the WF elements of NAF documents and in
+ * token lists kept in memory.
+ * <p>
+ * The table is direct mapped: each form has one slot, chosen by its hash, and
+ * replaces whatever form was there before. Lookups take no locks, the memory
+ * used is bounded by the number of slots, and frequent forms stay in the
+ * table because they come back to their slot faster than rare forms evict
+ * them. Forms longer than {@link #MAX_LENGTH} characters, mostly URLs and
+ * numbers, are not interned.
+ *
+ * @author ragerri
+ * @version 2016-04-20
+ */
+public class TokenInterner {
+
+  /**
+   * Maximum length of the forms interned.
+   */
+  public static final int MAX_LENGTH = 32;
+  /**
+   * Whether strings of Latin-1 characters take one byte per character, as
+   * they do from Java 9 on.
+   */
+  private static final boolean COMPACT_STRINGS = !System
+      .getProperty("java.specification.version").startsWith("1.");
+
+  private final AtomicReferenceArray<String> table;
+  private final int mask;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder bytesSaved = new LongAdder();
+
+  /**
+   * Build an interner with at least the given number of slots.
+   * 
+   * @param size
+   *          the number of slots, rounded up to a power of two
+   */
+  public TokenInterner(final int size) {
+    final int slots = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+    this.table = new AtomicReferenceArray<>(slots);
+    this.mask = slots - 1;
+  }
+
+  /**
+   * Get the shared instance of a token form.
+   * 
+   * @param form
+   *          the token form
+   * @return the interned form, or the form itself if it is not in the table
+   */
+  public String intern(final String form) {
+    if (form == null || form.length() > MAX_LENGTH) {
+      return form;
+    }
+    final int hash = form.hashCode();
+    final int slot = (hash ^ (hash >>> 16)) & mask;
+    final String interned = table.get(slot);
+    if (interned != null && interned.equals(form)) {
+      hits.increment();
+      if (interned != form) {
+        bytesSaved.add(sizeOf(form));
+      }
+      return interned;
+    }
+    misses.increment();
+    table.lazySet(slot, form);
+    return form;
+  }
+
+  /**
+   * Replace the value of every token by its interned form.
+   * 
+   * @param tokens
+   *          the tokens of each sentence
+   */
+  public void intern(final List<List<Token>> tokens) {
+    for (final List<Token> sentence : tokens) {
+      for (final Token token : sentence) {
+        token.setTokenValue(intern(token.getTokenValue()));
+      }
+    }
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Get the share of lookups which found the form in the table.
+   * 
+   * @return the hit rate, between 0 and 1
+   */
+  public double getHitRate() {
+    final long lookups = getHits() + getMisses();
+    return lookups == 0 ? 0 : (double) getHits() / lookups;
+  }
+
+  /**
+   * Get an estimate of the heap not retained thanks to the interned forms:
+   * the size of every string replaced by an interned one.
+   * 
+   * @return the bytes saved
+   */
+  public long getBytesSaved() {
+    return bytesSaved.sum();
+  }
+
+  public int getSize() {
+    return table.length();
+  }
+
+  /**
+   * Estimate the size of a string and its character array on a 64-bit JVM
+   * with compressed references.
+   */
+  static long sizeOf(final String form) {
+    int bytesPerChar = 1;
+    if (COMPACT_STRINGS) {
+      for (int i = 0; i < form.length() && bytesPerChar == 1; i++) {
+        if (form.charAt(i) > 0xFF) {
+          bytesPerChar = 2;
+        }
+      }
+    } else {
+      bytesPerChar = 2;
+    }
+    final long array = 16 + form.length() * bytesPerChar;
+    return 24 + ((array + 7) & ~7L);
+  }
+}
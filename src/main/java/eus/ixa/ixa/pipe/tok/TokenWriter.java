@@ -0,0 +1,221 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.tok;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import eus.ixa.ixa.pipe.ml.tok.RuleBasedSegmenter;
+import eus.ixa.ixa.pipe.ml.tok.Token;
+
+/**
+ * Writes tokens to a {@link Writer} through a character buffer reused by
+ * every rendering done in the same thread, so that rendering does not
+ * allocate per token: token values are copied without trimming them into new
+ * strings and numbers are written digit by digit.
+ * <p>
+ * Whitespace can be held back, so that the output is written trimmed without
+ * building it first.
+ *
+ * @author ragerri
+ * @version 2016-04-20
+ */
+final class TokenWriter {
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final ThreadLocal<char[]> BUFFERS = ThreadLocal
+      .withInitial(() -> new char[BUFFER_SIZE]);
+  private static final ThreadLocal<char[]> PENDING = ThreadLocal
+      .withInitial(() -> new char[64]);
+
+  private final Writer writer;
+  private final char[] buffer;
+  private int length = 0;
+  private final boolean trim;
+  private char[] pending;
+  private int pendingLength = 0;
+  private boolean started = false;
+
+  /**
+   * Build a token writer.
+   *
+   * @param writer
+   *          the writer
+   * @param trim
+   *          whether to drop leading and trailing whitespace of the output
+   */
+  TokenWriter(final Writer writer, final boolean trim) {
+    this.writer = writer;
+    this.trim = trim;
+    this.buffer = BUFFERS.get();
+    this.pending = PENDING.get();
+  }
+
+  /**
+   * Whether a token is a paragraph mark.
+   *
+   * @param token
+   *          the token
+   * @return true if the token is a paragraph mark
+   */
+  static boolean isParagraph(final Token token) {
+    return RuleBasedSegmenter.PARAGRAPH.equals(token.getTokenValue());
+  }
+
+  /**
+   * Write the value of a token without its leading and trailing whitespace.
+   *
+   * @param token
+   *          the token
+   * @throws IOException
+   *           if io problems
+   */
+  void writeToken(final Token token) throws IOException {
+    final String value = token.getTokenValue();
+    int start = 0;
+    int end = value.length();
+    while (start < end && value.charAt(start) <= ' ') {
+      ++start;
+    }
+    while (end > start && value.charAt(end - 1) <= ' ') {
+      --end;
+    }
+    write(value, start, end);
+  }
+
+  /**
+   * Write part of a string.
+   *
+   * @param value
+   *          the string
+   * @param start
+   *          the first character
+   * @param end
+   *          the character after the last one
+   * @throws IOException
+   *           if io problems
+   */
+  void write(final String value, int start, final int end)
+      throws IOException {
+    if (start == end) {
+      return;
+    }
+    flushPending();
+    while (start < end) {
+      if (length == buffer.length) {
+        flushBuffer();
+      }
+      final int chunk = Math.min(end - start, buffer.length - length);
+      value.getChars(start, start + chunk, buffer, length);
+      length += chunk;
+      start += chunk;
+    }
+  }
+
+  void write(final String value) throws IOException {
+    write(value, 0, value.length());
+  }
+
+  /**
+   * Write a whitespace character; if trimming, it is held back until
+   * something else is written.
+   *
+   * @param c
+   *          the character
+   * @throws IOException
+   *           if io problems
+   */
+  void writeSpace(final char c) throws IOException {
+    if (!trim) {
+      writeChar(c);
+      return;
+    }
+    if (!started) {
+      return;
+    }
+    if (pendingLength == pending.length) {
+      final char[] grown = new char[pending.length * 2];
+      System.arraycopy(pending, 0, grown, 0, pendingLength);
+      pending = grown;
+      PENDING.set(grown);
+    }
+    pending[pendingLength++] = c;
+  }
+
+  /**
+   * Write a number without converting it to a string.
+   *
+   * @param number
+   *          the number
+   * @throws IOException
+   *           if io problems
+   */
+  void writeInt(int number) throws IOException {
+    flushPending();
+    if (number < 0) {
+      if (number == Integer.MIN_VALUE) {
+        write(String.valueOf(number));
+        return;
+      }
+      writeChar('-');
+      number = -number;
+    }
+    int divisor = 1;
+    while (number / divisor >= 10) {
+      divisor *= 10;
+    }
+    for (; divisor > 0; divisor /= 10) {
+      writeChar((char) ('0' + number / divisor % 10));
+    }
+  }
+
+  /**
+   * Write the buffered characters to the writer, dropping held back
+   * whitespace.
+   *
+   * @throws IOException
+   *           if io problems
+   */
+  void flush() throws IOException {
+    flushBuffer();
+    pendingLength = 0;
+  }
+
+  private void writeChar(final char c) throws IOException {
+    started = true;
+    if (length == buffer.length) {
+      flushBuffer();
+    }
+    buffer[length++] = c;
+  }
+
+  private void flushPending() throws IOException {
+    started = true;
+    for (int i = 0; i < pendingLength; i++) {
+      if (length == buffer.length) {
+        flushBuffer();
+      }
+      buffer[length++] = pending[i];
+    }
+    pendingLength = 0;
+  }
+
+  private void flushBuffer() throws IOException {
+    writer.write(buffer, 0, length);
+    length = 0;
+  }
+}
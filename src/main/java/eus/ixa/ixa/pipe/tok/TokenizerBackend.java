@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package eus.ixa.ixa.pipe.tok;
+
+import java.util.Properties;
+
+import eus.ixa.ixa.pipe.ml.tok.SentenceSegmenter;
+import eus.ixa.ixa.pipe.ml.tok.Tokenizer;
+
+/**
+ * A tokenizer backend builds the sentence segmenter and the tokenizer of a
+ * text. Backends are found with {@link java.util.ServiceLoader}: an
+ * implementation with a public no-argument constructor is listed in a
+ * {@code META-INF/services/eus.ixa.ixa.pipe.tok.TokenizerBackend} file of its
+ * jar, and chosen by name with the backend option, see
+ * {@link TokenizerBackends}. A backend must give the same tokens and offsets
+ * as the rule-based one for the options it supports, as the caches and the
+ * batching of several documents mix the tokens of every backend.
+ *
+ * @author ragerri
+ * @version 2016-04-20
+ */
+public interface TokenizerBackend {
+
+  /**
+   * Get the name the backend is chosen by.
+   *
+   * @return the name
+   */
+  String getName();
+
+  /**
+   * Whether the backend can segment and tokenize with the given options,
+   * such as the language.
+   *
+   * @param properties
+   *          the options
+   * @return true if supported
+   */
+  boolean supports(Properties properties);
+
+  /**
+   * Build the sentence segmenter of a text.
+   *
+   * @param text
+   *          the text
+   * @param properties
+   *          the options
+   * @return the segmenter
+   */
+  SentenceSegmenter newSegmenter(String text, Properties properties);
+
+  /**
+   * Build the tokenizer of the sentences of a text; the offsets of the
+   * tokens are offsets in the text.
+   *
+   * @param text
+   *          the text
+   * @param properties
+   *          the options
+   * @return the tokenizer
+   */
+  Tokenizer newTokenizer(String text, Properties properties);
+}
@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package eus.ixa.ixa.pipe.tok;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.ServiceLoader;
+
+/**
+ * The tokenizer backends found on the classpath. The backend option is a
+ * comma separated list of backend names in order of preference; the first
+ * one supporting the other options, such as the language, is used, and the
+ * rule-based backend if none does or the option is not given. A list such as
+ * {@code fast,rule} thus uses the fast backend for the languages it knows
+ * and the rule-based one for the others.
+ *
+ * @author ragerri
+ * @version 2016-04-20
+ */
+public final class TokenizerBackends {
+
+  /**
+   * The backends by name, loaded once.
+   */
+  private static final Map<String, TokenizerBackend> BACKENDS = load();
+  private static final TokenizerBackend RULE_BASED = BACKENDS
+      .get(RuleBasedBackend.NAME);
+
+  private TokenizerBackends() {
+  }
+
+  private static Map<String, TokenizerBackend> load() {
+    final Map<String, TokenizerBackend> backends = new LinkedHashMap<>();
+    backends.put(RuleBasedBackend.NAME, new RuleBasedBackend());
+    for (final TokenizerBackend backend : ServiceLoader
+        .load(TokenizerBackend.class)) {
+      if (!backends.containsKey(backend.getName())) {
+        backends.put(backend.getName(), backend);
+      }
+    }
+    return Collections.unmodifiableMap(backends);
+  }
+
+  /**
+   * Get the names of the available backends.
+   *
+   * @return the names
+   */
+  public static List<String> getNames() {
+    return new ArrayList<>(BACKENDS.keySet());
+  }
+
+  /**
+   * Get the rule-based backend.
+   *
+   * @return the backend
+   */
+  public static TokenizerBackend getRuleBased() {
+    return RULE_BASED;
+  }
+
+  /**
+   * Get the backend chosen by the backend option.
+   *
+   * @param properties
+   *          the options
+   * @return the backend
+   * @throws IllegalArgumentException
+   *           if a backend is not known
+   */
+  public static TokenizerBackend get(final Properties properties) {
+    final String names = properties.getProperty("backend");
+    if (names == null) {
+      return RULE_BASED;
+    }
+    for (final String name : names.split(",")) {
+      final TokenizerBackend backend = BACKENDS.get(name.trim());
+      if (backend == null) {
+        throw new IllegalArgumentException("Unknown tokenizer backend "
+            + name.trim() + "; choose among " + BACKENDS.keySet());
+      }
+      if (backend.supports(properties)) {
+        return backend;
+      }
+    }
+    return RULE_BASED;
+  }
+}
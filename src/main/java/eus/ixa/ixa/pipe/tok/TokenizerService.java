@@ -0,0 +1,291 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.tok;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.jdom2.JDOMException;
+
+import eus.ixa.ixa.pipe.cli.CLI;
+import eus.ixa.ixa.pipe.ml.tok.Token;
+import ixa.kaflib.KAFDocument;
+
+/**
+ * Asynchronous tokenization service for applications embedding ixa-pipe-tok.
+ * Documents are tokenized on a shared executor and the results are returned
+ * as {@link CompletableFuture}s, so that tokenization can overlap with other
+ * stages of a pipeline. The default executor has a bounded queue: when it is
+ * full, submitting blocks until a worker is free.
+ * <p>
+ * The properties given to the constructor are the default options of every
+ * request, the same as the ones of the CLI (language, normalize,
+ * outputFormat, etc.); the options given with each request override them.
+ * Options not given anywhere take the default values of the CLI.
+ * The service itself is configured with:
+ * <ol>
+ * <li>threads: number of worker threads, defaults to the number of
+ * processors.
+ * <li>queueSize: number of documents waiting for a worker, defaults to 1000.
+ * <li>sentenceCache: number of tokenized sentences shared by all requests,
+ * defaults to 0 (no cache).
+ * <li>intern: number of slots of the token interner shared by all requests,
+ * defaults to 0 (no interning).
+ * </ol>
+ *
+ * @author ragerri
+ * @version 2016-04-20
+ */
+public class TokenizerService implements AutoCloseable {
+
+  private final String version = CLI.class.getPackage()
+      .getImplementationVersion();
+  private final String commit = CLI.class.getPackage()
+      .getSpecificationVersion();
+
+  private final Properties defaults;
+  private final ExecutorService executor;
+  /**
+   * Whether the executor was built by the service, which then shuts it down.
+   */
+  private final boolean ownsExecutor;
+  private final SentenceCache sentenceCache;
+  private final TokenInterner interner;
+
+  /**
+   * Build a service with its own executor.
+   *
+   * @param properties
+   *          the default options and the service configuration
+   */
+  public TokenizerService(final Properties properties) {
+    this(properties, newExecutor(
+        Integer.parseInt(properties.getProperty("threads",
+            String.valueOf(Runtime.getRuntime().availableProcessors()))),
+        Integer.parseInt(properties.getProperty("queueSize", "1000"))), true);
+  }
+
+  /**
+   * Build a service running on the given executor. The executor is not shut
+   * down when the service is closed.
+   *
+   * @param properties
+   *          the default options and the service configuration
+   * @param executor
+   *          the executor
+   */
+  public TokenizerService(final Properties properties,
+      final ExecutorService executor) {
+    this(properties, executor, false);
+  }
+
+  private TokenizerService(final Properties properties,
+      final ExecutorService executor, final boolean ownsExecutor) {
+    this.defaults = properties;
+    this.executor = executor;
+    this.ownsExecutor = ownsExecutor;
+    final int sentenceCacheSize = Integer
+        .parseInt(properties.getProperty("sentenceCache", "0"));
+    this.sentenceCache = sentenceCacheSize > 0
+        ? new SentenceCache(sentenceCacheSize) : null;
+    final int internSize = Integer
+        .parseInt(properties.getProperty("intern", "0"));
+    this.interner = internSize > 0 ? new TokenInterner(internSize) : null;
+  }
+
+  /**
+   * Get the token interner shared by all requests.
+   *
+   * @return the interner, or null if token forms are not interned
+   */
+  public TokenInterner getInterner() {
+    return interner;
+  }
+
+  /**
+   * Build an executor with a bounded queue which makes the submitting thread
+   * wait while the queue is full.
+   *
+   * @param threads
+   *          the number of worker threads
+   * @param queueSize
+   *          the number of queued tasks
+   * @return the executor
+   */
+  public static ExecutorService newExecutor(final int threads,
+      final int queueSize) {
+    return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(queueSize), (task, pool) -> {
+          if (pool.isShutdown()) {
+            throw new RejectedExecutionException("Service is closed");
+          }
+          try {
+            pool.getQueue().put(task);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(e);
+          }
+        });
+  }
+
+  /**
+   * Tokenize a text and render it in the output format of the options. If
+   * the formats option lists several formats, the output is a multipart
+   * document as returned by the server.
+   *
+   * @param text
+   *          the text, or a NAF document if the inputkaf option is chosen
+   * @param options
+   *          the options overriding the defaults
+   * @return the rendered output
+   */
+  public CompletableFuture<String> tokenize(final String text,
+      final Properties options) {
+    return tokenizeToFormats(text, options).thenApply(outputs -> outputs
+        .size() == 1 ? outputs.values().iterator().next()
+            : RuleBasedTokenizerServer.toMultipart(outputs));
+  }
+
+  /**
+   * Tokenize a text once and render it in every format of the formats
+   * option, or in the output format if not given.
+   *
+   * @param text
+   *          the text, or a NAF document if the inputkaf option is chosen
+   * @param options
+   *          the options overriding the defaults
+   * @return the rendered output of each format, in the order requested
+   */
+  public CompletableFuture<Map<String, String>> tokenizeToFormats(
+      final String text, final Properties options) {
+    final Properties properties = getProperties(options);
+    final List<String> outputFormats;
+    try {
+      outputFormats = Annotate.getOutputFormats(properties);
+    } catch (IllegalArgumentException e) {
+      final CompletableFuture<Map<String, String>> future = new CompletableFuture<>();
+      future.completeExceptionally(e);
+      return future;
+    }
+    return submit(() -> {
+      try {
+        return RuleBasedTokenizerServer.annotate(text, properties,
+            sentenceCache, interner);
+      } catch (IOException | JDOMException e) {
+        throw new CompletionException(e);
+      }
+    });
+  }
+
+  /**
+   * Tokenize a text into the tokens of each sentence.
+   *
+   * @param text
+   *          the text
+   * @param options
+   *          the options overriding the defaults
+   * @return the tokens of each sentence
+   */
+  public CompletableFuture<List<List<Token>>> tokenizeToTokens(
+      final String text, final Properties options) {
+    final Properties properties = getProperties(options);
+    return submit(() -> new Annotate(
+        new BufferedReader(new StringReader(text)), properties, sentenceCache,
+        interner).tokenize());
+  }
+
+  /**
+   * Tokenize the raw layer of a NAF document, adding the WF elements and the
+   * linguistic processor to it.
+   *
+   * @param kaf
+   *          the NAF document
+   * @param options
+   *          the options overriding the defaults
+   * @return the same NAF document once tokenized
+   */
+  public CompletableFuture<KAFDocument> tokenize(final KAFDocument kaf,
+      final Properties options) {
+    final Properties properties = getProperties(options);
+    if (options.getProperty("language") == null) {
+      properties.setProperty("language", kaf.getLang());
+    }
+    return submit(() -> {
+      final String lang = properties.getProperty("language");
+      final Annotate annotator = new Annotate(
+          new BufferedReader(new StringReader(kaf.getRawText())), properties,
+          sentenceCache, interner);
+      final KAFDocument.LinguisticProcessor newLp = kaf.addLinguisticProcessor(
+          "text", "ixa-pipe-tok-" + lang, version + "-" + commit);
+      newLp.setBeginTimestamp();
+      Annotate.tokensToKAF(annotator.tokenize(), kaf);
+      newLp.setEndTimestamp();
+      return kaf;
+    });
+  }
+
+  /**
+   * Stop accepting documents and wait for the queued ones to finish, if the
+   * service built its own executor; an executor given to the service is left
+   * to its owner.
+   */
+  @Override
+  public void close() {
+    if (!ownsExecutor) {
+      return;
+    }
+    executor.shutdown();
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private <T> CompletableFuture<T> submit(final Supplier<T> task) {
+    try {
+      return CompletableFuture.supplyAsync(task, executor);
+    } catch (RejectedExecutionException e) {
+      final CompletableFuture<T> future = new CompletableFuture<>();
+      future.completeExceptionally(e);
+      return future;
+    }
+  }
+
+  private Properties getProperties(final Properties options) {
+    final Properties properties = new Properties();
+    properties.setProperty("normalize", "default");
+    properties.setProperty("untokenizable", "no");
+    properties.setProperty("hardParagraph", "no");
+    properties.setProperty("noseg", "false");
+    properties.putAll(defaults);
+    properties.putAll(options);
+    return properties;
+  }
+}
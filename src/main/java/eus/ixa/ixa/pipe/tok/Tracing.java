@@ -0,0 +1,191 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.tok;
+
+import java.util.List;
+
+import eus.ixa.ixa.pipe.ml.tok.Token;
+
+/**
+ * Emits the {@link DocumentEvent} and {@link StageEvent} Flight Recorder
+ * events. Events are only created if the JVM provides the Flight Recorder
+ * API, so that the event classes are never loaded otherwise; when no
+ * recording is running they cost a begin and an end call.
+ *
+ * @author ragerri
+ * @version 2016-04-20
+ */
+final class Tracing {
+
+  private static final boolean ENABLED = isAvailable();
+
+  private Tracing() {
+  }
+
+  private static boolean isAvailable() {
+    try {
+      Class.forName("jdk.jfr.Event");
+      return true;
+    } catch (final ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Start timing a document.
+   *
+   * @return the event, or null if Flight Recorder is not available
+   */
+  static DocumentEvent beginDocument() {
+    if (!ENABLED) {
+      return null;
+    }
+    final DocumentEvent event = new DocumentEvent();
+    event.begin();
+    return event;
+  }
+
+  /**
+   * Finish timing a document and commit the event if it is recorded.
+   *
+   * @param event
+   *          the event, or null
+   * @param source
+   *          annotate or server
+   * @param language
+   *          the language
+   * @param outputFormat
+   *          the output format
+   * @param inputSize
+   *          the number of characters of the input
+   * @param tokens
+   *          the tokens of each sentence, or null if not known
+   */
+  static void endDocument(final DocumentEvent event, final String source,
+      final String language, final String outputFormat, final long inputSize,
+      final List<List<Token>> tokens) {
+    if (event == null) {
+      return;
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.source = source;
+      event.language = language;
+      event.outputFormat = outputFormat;
+      event.inputSize = inputSize;
+      if (tokens != null) {
+        event.sentences = tokens.size();
+        event.tokens = countTokens(tokens);
+      }
+      event.commit();
+    }
+  }
+
+  /**
+   * Finish timing a document whose sentences and tokens were counted while
+   * processing it.
+   *
+   * @param event
+   *          the event, or null
+   * @param source
+   *          the component which processed the document
+   * @param language
+   *          the language
+   * @param outputFormat
+   *          the output format
+   * @param inputSize
+   *          the number of characters of the input
+   * @param sentences
+   *          the number of sentences
+   * @param tokens
+   *          the number of tokens
+   */
+  static void endDocument(final DocumentEvent event, final String source,
+      final String language, final String outputFormat, final long inputSize,
+      final int sentences, final int tokens) {
+    if (event == null) {
+      return;
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.source = source;
+      event.language = language;
+      event.outputFormat = outputFormat;
+      event.inputSize = inputSize;
+      event.sentences = sentences;
+      event.tokens = tokens;
+      event.commit();
+    }
+  }
+
+  /**
+   * Start timing a stage.
+   *
+   * @return the event, or null if Flight Recorder is not available
+   */
+  static StageEvent beginStage() {
+    if (!ENABLED) {
+      return null;
+    }
+    final StageEvent event = new StageEvent();
+    event.begin();
+    return event;
+  }
+
+  /**
+   * Finish timing a stage and commit the event if it is recorded.
+   *
+   * @param event
+   *          the event, or null
+   * @param stage
+   *          the name of the stage
+   * @param language
+   *          the language
+   * @param inputSize
+   *          the number of characters of the input
+   * @param sentences
+   *          the number of sentences
+   * @param tokens
+   *          the tokens of each sentence, or null if not known
+   */
+  static void endStage(final StageEvent event, final String stage,
+      final String language, final long inputSize, final int sentences,
+      final List<List<Token>> tokens) {
+    if (event == null) {
+      return;
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.stage = stage;
+      event.language = language;
+      event.inputSize = inputSize;
+      event.sentences = sentences;
+      if (tokens != null) {
+        event.tokens = countTokens(tokens);
+      }
+      event.commit();
+    }
+  }
+
+  private static int countTokens(final List<List<Token>> tokens) {
+    int count = 0;
+    for (final List<Token> sentence : tokens) {
+      count += sentence.size();
+    }
+    return count;
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ *  Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.tok;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ConnectException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Unix domain sockets for the server and the client when they run on the
+ * same host, so that requests do not go through the loopback TCP stack.
+ * Unix domain socket channels are only available from Java 16 on; they are
+ * looked up at runtime so that ixa-pipe-tok still builds and runs with TCP
+ * on Java 8.
+ *
+ * @author ragerri
+ * @version 2016-04-20
+ */
+public final class UnixSockets {
+
+  /**
+   * The file type bits of a Unix file mode, and the type of a socket.
+   */
+  private static final int S_IFMT = 0170000;
+  private static final int S_IFSOCK = 0140000;
+
+  private UnixSockets() {
+  }
+
+  /**
+   * Whether the running JVM supports Unix domain socket channels.
+   *
+   * @return true if supported
+   */
+  public static boolean isSupported() {
+    try {
+      getFamily();
+      Class.forName("java.net.UnixDomainSocketAddress");
+      return true;
+    } catch (UnsupportedOperationException | ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Listen on a socket path. A socket left at the path by a previous server
+   * which is not running any more is removed first; anything else at the
+   * path is left alone and the socket is not bound.
+   *
+   * @param path
+   *          the socket path
+   * @return the server channel
+   * @throws IOException
+   *           if the socket cannot be bound, the path is not a socket or
+   *           another server listens on it
+   */
+  public static ServerSocketChannel bind(final String path)
+      throws IOException {
+    final Path socketPath = Paths.get(path);
+    removeStale(socketPath);
+    final ServerSocketChannel server = (ServerSocketChannel) invoke(
+        ServerSocketChannel.class, "open", getFamily());
+    try {
+      server.bind(getAddress(socketPath));
+    } catch (final IOException e) {
+      server.close();
+      throw e;
+    }
+    return server;
+  }
+
+  /**
+   * Connect to a server listening on a socket path.
+   *
+   * @param path
+   *          the socket path
+   * @return the connected channel
+   * @throws IOException
+   *           if the connection fails
+   */
+  public static SocketChannel connect(final String path) throws IOException {
+    final SocketChannel channel = (SocketChannel) invoke(SocketChannel.class,
+        "open", getFamily());
+    try {
+      channel.connect(getAddress(Paths.get(path)));
+    } catch (final IOException e) {
+      channel.close();
+      throw e;
+    }
+    return channel;
+  }
+
+  /**
+   * Remove the socket at a path if no server accepts connections on it.
+   */
+  private static void removeStale(final Path path) throws IOException {
+    if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+      return;
+    }
+    if (!isSocket(path)) {
+      throw new FileAlreadyExistsException(path.toString(), null,
+          "not a socket, remove it or choose another socket path");
+    }
+    final SocketChannel channel;
+    try {
+      channel = connect(path.toString());
+    } catch (final ConnectException e) {
+      // refused: left by a server which did not remove it when stopping
+      Files.delete(path);
+      return;
+    }
+    channel.close();
+    throw new IOException("Another server is listening on " + path);
+  }
+
+  private static boolean isSocket(final Path path) throws IOException {
+    try {
+      final int mode = (Integer) Files.getAttribute(path, "unix:mode",
+          LinkOption.NOFOLLOW_LINKS);
+      return (mode & S_IFMT) == S_IFSOCK;
+    } catch (final UnsupportedOperationException
+        | IllegalArgumentException e) {
+      // no Unix file modes: a socket is neither a file, a directory nor a
+      // link
+      return Files.readAttributes(path, BasicFileAttributes.class,
+          LinkOption.NOFOLLOW_LINKS).isOther();
+    }
+  }
+
+  private static ProtocolFamily getFamily() {
+    try {
+      return StandardProtocolFamily.valueOf("UNIX");
+    } catch (final IllegalArgumentException e) {
+      throw new UnsupportedOperationException(
+          "Unix domain sockets require Java 16 or later");
+    }
+  }
+
+  private static SocketAddress getAddress(final Path path) throws IOException {
+    try {
+      return (SocketAddress) invoke(
+          Class.forName("java.net.UnixDomainSocketAddress"), "of", path);
+    } catch (final ClassNotFoundException e) {
+      throw new UnsupportedOperationException(
+          "Unix domain sockets require Java 16 or later");
+    }
+  }
+
+  /**
+   * Call a static method taking one argument of the declared type of the
+   * given value.
+   */
+  private static Object invoke(final Class<?> type, final String name,
+      final Object argument) throws IOException {
+    try {
+      final Class<?> parameter = argument instanceof ProtocolFamily
+          ? ProtocolFamily.class : Path.class;
+      final Method method = type.getMethod(name, parameter);
+      return method.invoke(null, argument);
+    } catch (final NoSuchMethodException | IllegalAccessException e) {
+      throw new UnsupportedOperationException(
+          "Unix domain sockets require Java 16 or later");
+    } catch (final InvocationTargetException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+}
@@ -3,6 +3,8 @@ package eus.ixa.ixa.pipe.cli;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+
 public class CLIArgumentsParserTest {
   private CLIArgumentsParser argumentsParser = new CLIArgumentsParser(
       "test-version");
@@ -42,6 +44,15 @@ public class CLIArgumentsParserTest {
     assertEquals("8001", parameters.getPort());
   }
 
+  @Test
+  public void testParseServerWarmup() throws Exception {
+    String[] args = "server -l en -p 8001 --warmup --warmupTime 10".split("\\s");
+    Parameters parameters = argumentsParser.parse(args);
+
+    assertTrue(parameters.getWarmup());
+    assertEquals("10", parameters.getServerProperties().getProperty("warmupTime"));
+  }
+
   @Test
   public void testParseClientStrategy() throws Exception {
     String[] args = "client -p 8001".split("\\s");
@@ -50,4 +61,23 @@ public class CLIArgumentsParserTest {
     assertEquals(Strategy.CLIENT, parameters.getStrategy());
     assertEquals("8001", parameters.getPort());
   }
+
+  @Test
+  public void testParseSocket() throws Exception {
+    String[] args = "server -l en --socket /tmp/tok.sock".split("\\s");
+    Parameters parameters = argumentsParser.parse(args);
+
+    assertEquals("/tmp/tok.sock",
+        parameters.getServerProperties().getProperty("socket"));
+    assertNull(parameters.getServerProperties().getProperty("port"));
+
+    args = "client --socket /tmp/tok.sock".split("\\s");
+    assertEquals("/tmp/tok.sock", argumentsParser.parse(args).getSocket());
+  }
+
+  @Test(expected = ArgumentParserException.class)
+  public void testParsePortAndSocket() throws Exception {
+    String[] args = "client -p 8001 --socket /tmp/tok.sock".split("\\s");
+    argumentsParser.parse(args);
+  }
 }
@@ -0,0 +1,141 @@
+package eus.ixa.ixa.pipe.tok;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import eus.ixa.ixa.pipe.ml.tok.Token;
+
+public class AnnotateTest {
+
+  private static final String TEXT = "We use cookies.  Accept all cookies?\n"
+      + "The U.S. economy grew 2.5% in (early) 2019... or so they said.\n\n"
+      + "We use cookies.  Accept all cookies?\n"
+      + "Contact us at info@example.com or visit http://www.example.com today.\n\n"
+      + "We use  cookies.  Accept all cookies?\n";
+
+  /**
+   * Text with tokens which are not in the text, such as URLs joined across
+   * spaces, and with normalized tokens.
+   */
+  private static final String MISSING = "U.S.http://x.com/a wordhttp://x.com/a%\n"
+      + "He said \"no\" and then ``yes'' to ½ of them.\n\n"
+      + "Visit www.example.com /a.html now.\n";
+
+  private static Annotate annotate(String text, SentenceCache cache) {
+    return new Annotate(new BufferedReader(new StringReader(text)),
+        TestProperties.get("ptb"), cache);
+  }
+
+  @Test
+  public void testSentenceCacheKeepsOffsets() {
+    String expected = annotate(TEXT, null).tokenizeToCoNLLOffsets();
+    SentenceCache cache = new SentenceCache(100);
+
+    assertEquals(expected, annotate(TEXT, cache).tokenizeToCoNLLOffsets());
+    long misses = cache.getMisses();
+    assertEquals(expected, annotate(TEXT, cache).tokenizeToCoNLLOffsets());
+    assertEquals(misses, cache.getMisses());
+    assertTrue(cache.getHits() > 0);
+  }
+
+  @Test
+  public void testSentenceCacheTokensNotInText() {
+    SentenceCache cache = new SentenceCache(100);
+    // the placeholder of the tokenizer for periods is not in the text either
+    for (String text : new String[] { MISSING, MISSING.substring(4),
+        "Welcome.  " + MISSING, TEXT + MISSING,
+        MISSING + "DOTMULTI. or DOTMULTI...\n" }) {
+      String expected = annotate(text, null).tokenizeToCoNLLOffsets();
+      assertEquals(expected, annotate(text, cache).tokenizeToCoNLLOffsets());
+      assertEquals(expected, annotate(text, cache).tokenizeToCoNLLOffsets());
+    }
+    assertTrue(cache.getHits() > 0);
+  }
+
+  @Test
+  public void testTokenizeOnceRenderMany() throws Exception {
+    Annotate annotator = annotate(TEXT, null);
+    List<List<Token>> tokens = annotator.tokenize();
+
+    assertEquals(annotate(TEXT, null).tokenizeToCoNLLOffsets(),
+        annotator.tokenizeToCoNLLOffsets());
+    assertEquals(annotate(TEXT, null).tokenizeToText(),
+        annotator.tokenizeToText());
+    assertEquals(annotate(TEXT, null).tokenizeToCoNLL(),
+        annotator.tokenizeToCoNLL());
+    assertSame(tokens, annotator.tokenize());
+  }
+
+  @Test
+  public void testNoSegCoNLL() {
+    Properties properties = TestProperties.get("ptb");
+    properties.setProperty("noseg", "true");
+    Annotate annotator = new Annotate(new BufferedReader(new StringReader(
+        "We use cookies. Accept all cookies?\nThe end.\n")), properties);
+    // every input line is a sentence, even with several sentences in it
+    assertEquals("We\nuse\ncookies\n.\nAccept\nall\ncookies\n?\n\n"
+        + "The\nend\n.\n\n", annotator.tokenizeToCoNLL());
+    assertEquals(annotator.tokenizeToCoNLL(),
+        annotator.tokenizeToCoNLLOffsets().replaceAll(" \\d+ \\d+\n", "\n"));
+  }
+
+  @Test
+  public void testTokenizeBatch() {
+    String[] documents = { "Just landed in Paris! Can't wait",
+        "We use cookies.  Accept all cookies?",
+        "Contact us at info@example.com today\n\nor   not.",
+        "", "We use cookies.  Accept all cookies?" };
+    SentenceCache cache = new SentenceCache(100);
+    for (SentenceCache batchCache : new SentenceCache[] { null, cache,
+        cache }) {
+      List<Annotate> annotators = new ArrayList<>();
+      for (String document : documents) {
+        annotators.add(annotate(document, batchCache));
+      }
+      Annotate.tokenize(annotators);
+      for (int i = 0; i < documents.length; i++) {
+        assertEquals(annotate(documents[i], null).tokenizeToCoNLLOffsets(),
+            annotators.get(i).tokenizeToCoNLLOffsets());
+      }
+    }
+    assertTrue(cache.getHits() > 0);
+  }
+
+  @Test
+  public void testTokenizeBatchTokensNotInText() {
+    String[] documents = { MISSING, "We use cookies.  " + MISSING,
+        MISSING.substring(4), TEXT, MISSING + "DOTMULTI. or DOTMULTI...\n",
+        "  " + MISSING };
+    SentenceCache cache = new SentenceCache(100);
+    for (SentenceCache batchCache : new SentenceCache[] { null, cache,
+        cache }) {
+      List<Annotate> annotators = new ArrayList<>();
+      for (String document : documents) {
+        annotators.add(annotate(document, batchCache));
+      }
+      Annotate.tokenize(annotators);
+      for (int i = 0; i < documents.length; i++) {
+        assertEquals(annotate(documents[i], null).tokenizeToCoNLLOffsets(),
+            annotators.get(i).tokenizeToCoNLLOffsets());
+      }
+    }
+  }
+
+  @Test
+  public void testGetOutputFormats() {
+    Properties properties = new Properties();
+    assertEquals("[naf]", Annotate.getOutputFormats(properties).toString());
+    properties.setProperty("outputFormat", "conll");
+    assertEquals("[conll]", Annotate.getOutputFormats(properties).toString());
+    properties.setProperty("formats", "oneline, NAF,oneline");
+    assertEquals("[oneline, naf]",
+        Annotate.getOutputFormats(properties).toString());
+  }
+}
@@ -0,0 +1,129 @@
+package eus.ixa.ixa.pipe.tok;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CorpusRunTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static Properties getProperties(String normalize) {
+    Properties properties = TestProperties.get(normalize);
+    properties.setProperty("outputFormat", "conll");
+    return properties;
+  }
+
+  private static final CorpusRun.FileAnnotator ANNOTATOR = (input,
+      outputs) -> {
+    try (BufferedReader reader = Files.newBufferedReader(input,
+        StandardCharsets.UTF_8)) {
+      Annotate annotator = new Annotate(reader, getProperties("default"));
+      for (Writer writer : outputs.values()) {
+        annotator.tokenizeToCoNLLOffsets(writer);
+      }
+    }
+  };
+
+  private static void write(Path file, String text) throws IOException {
+    Files.createDirectories(file.getParent());
+    Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private CorpusRun run(Path corpus, Path output, String hash,
+      CorpusRun.FileAnnotator annotator) throws IOException {
+    try (Manifest manifest = new Manifest(output.resolve("manifest"))) {
+      CorpusRun run = new CorpusRun(output, Arrays.asList("conll", "oneline"),
+          manifest, hash);
+      run.run(corpus, annotator);
+      return run;
+    }
+  }
+
+  @Test
+  public void testResume() throws IOException {
+    Path corpus = folder.newFolder("corpus").toPath();
+    Path output = folder.newFolder("output").toPath();
+    write(corpus.resolve("a.txt"), "We use cookies. Accept all cookies?\n");
+    write(corpus.resolve("sub/b.txt"), "The U.S. economy grew 2.5%.\n");
+    String hash = Manifest.hash(getProperties("default"));
+
+    CorpusRun run = run(corpus, output, hash, ANNOTATOR);
+    assertEquals(2, run.getDone());
+    Path conll = run.getOutput(corpus, corpus.resolve("sub/b.txt"), "conll");
+    assertEquals(output.resolve("sub/b.txt.conll"), conll);
+    assertTrue(new String(Files.readAllBytes(conll), StandardCharsets.UTF_8)
+        .startsWith("The 0 3\n"));
+
+    // nothing to do after a restart
+    run = run(corpus, output, hash, ANNOTATOR);
+    assertEquals(0, run.getDone());
+    assertEquals(2, run.getSkipped());
+
+    // only the changed input is done again
+    write(corpus.resolve("sub/b.txt"), "The U.S. economy shrank.\n");
+    run = run(corpus, output, hash, ANNOTATOR);
+    assertEquals(1, run.getDone());
+    assertEquals(1, run.getSkipped());
+
+    // every input is done again with other options
+    run = run(corpus, output, Manifest.hash(getProperties("ptb")), ANNOTATOR);
+    assertEquals(2, run.getDone());
+  }
+
+  @Test
+  public void testHash() {
+    String hash = Manifest.hash(getProperties("default"));
+    assertEquals(16, hash.length());
+    // options which do not change the output files keep the hash
+    Properties properties = getProperties("default");
+    properties.setProperty("backend", "fast");
+    properties.setProperty("pipeline", "4");
+    assertEquals(hash, Manifest.hash(properties));
+    properties = getProperties("default");
+    properties.setProperty("offsets", "false");
+    assertNotEquals(hash, Manifest.hash(properties));
+    properties = getProperties("default");
+    properties.setProperty("formats", "conll,naf");
+    assertNotEquals(hash, Manifest.hash(properties));
+  }
+
+  @Test
+  public void testFailuresAndTornManifest() throws IOException {
+    Path corpus = folder.newFolder("corpus").toPath();
+    Path output = folder.newFolder("output").toPath();
+    write(corpus.resolve("a.txt"), "We use cookies.\n");
+    String hash = Manifest.hash(getProperties("default"));
+
+    CorpusRun run = run(corpus, output, hash, (input, outputs) -> {
+      throw new IOException("preempted");
+    });
+    assertEquals(1, run.getFailed());
+    assertFalse(Files.exists(run.getOutput(corpus, corpus.resolve("a.txt"),
+        "conll")));
+
+    run(corpus, output, hash, ANNOTATOR);
+    // a line cut by a crash is ignored and the next line starts anew
+    Files.write(output.resolve("manifest"),
+        "12\t34".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    try (Manifest manifest = new Manifest(output.resolve("manifest"))) {
+      assertEquals(1, manifest.size());
+      assertTrue(manifest.isDone(corpus.resolve("a.txt"), hash));
+    }
+    run = run(corpus, output, hash, ANNOTATOR);
+    assertEquals(1, run.getSkipped());
+  }
+}
@@ -0,0 +1,128 @@
+package eus.ixa.ixa.pipe.tok;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FollowerTest {
+
+  private static final String FIRST = "We use cookies. Accept all cookies?\n\n"
+      + "The U.S. economy grew 2.5% in 2019.\n\n";
+
+  private static final String SECOND = "Contact us at info@example.com "
+      + "today.\n\n";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static Properties getProperties() {
+    Properties properties = TestProperties.get();
+    properties.setProperty("outputFormat", "conll");
+    properties.setProperty("offsets", "true");
+    return properties;
+  }
+
+  private static void append(Path file, String text) throws IOException {
+    Files.write(file, text.getBytes(StandardCharsets.UTF_8),
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+  }
+
+  private static String read(Path file) throws IOException {
+    return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+  }
+
+  private static String tokenize(String text) {
+    return new Annotate(new BufferedReader(new StringReader(text)),
+        getProperties()).tokenizeToCoNLLOffsets();
+  }
+
+  @Test
+  public void testParagraphsEnd() {
+    assertEquals(0, Follower.getParagraphsEnd(""));
+    assertEquals(0, Follower.getParagraphsEnd("One line\n"));
+    assertEquals(10, Follower.getParagraphsEnd("One line\n\nTwo"));
+    assertEquals(12, Follower.getParagraphsEnd("One line\n \n\nTwo\n"));
+  }
+
+  @Test
+  public void testFollowAndRestart() throws IOException {
+    Path input = folder.newFile("crawl.txt").toPath();
+    Path outputDir = folder.newFolder("out").toPath();
+    append(input, FIRST + "Contact us");
+
+    Follower follower = new Follower(input, outputDir, getProperties());
+    Path output = follower.getOutput(input);
+    assertEquals(2, follower.update());
+    assertEquals(tokenize(FIRST), read(output));
+
+    // the rest of the paragraph arrives, tokens keep offsets in the file
+    append(input, SECOND.substring("Contact us".length()));
+    assertEquals(1, follower.update());
+    assertEquals(0, follower.update());
+    String expected = read(output);
+    assertTrue(expected.startsWith(tokenize(FIRST)));
+    assertTrue(expected.contains("Contact " + FIRST.length() + " 7\n"));
+
+    // a restarted follower carries on from the checkpoint
+    follower = new Follower(input, outputDir, getProperties());
+    assertEquals(0, follower.update());
+    assertEquals(expected, read(output));
+
+    // output written after the last checkpoint is dropped
+    append(output, "Contact 0 7\n");
+    follower = new Follower(input, outputDir, getProperties());
+    assertEquals(0, follower.update());
+    assertEquals(expected, read(output));
+  }
+
+  @Test
+  public void testInputReplaced() throws IOException {
+    Path input = folder.newFile("crawl.txt").toPath();
+    Path outputDir = folder.newFolder("out").toPath();
+    append(input, FIRST + SECOND);
+    Follower follower = new Follower(input, outputDir, getProperties());
+    assertEquals(3, follower.update());
+
+    // a shorter input starts a new output and checkpoint
+    Files.write(input, SECOND.getBytes(StandardCharsets.UTF_8));
+    assertEquals(1, follower.update());
+    assertEquals(tokenize(SECOND), read(follower.getOutput(input)));
+    Properties checkpoint = new Properties();
+    checkpoint.load(new StringReader(read(outputDir.resolve(
+        follower.getOutput(input).getFileName() + Follower.CHECKPOINT))));
+    assertEquals("1", checkpoint.getProperty("sentences"));
+    assertEquals("1", checkpoint.getProperty("paragraphs"));
+
+    // and a restarted follower carries on from it
+    follower = new Follower(input, outputDir, getProperties());
+    assertEquals(0, follower.update());
+    assertEquals(tokenize(SECOND), read(follower.getOutput(input)));
+  }
+
+  @Test
+  public void testFollowDirectory() throws IOException {
+    Path dir = folder.newFolder("in").toPath();
+    append(dir.resolve("a.txt"), FIRST);
+    append(dir.resolve("b.txt"), SECOND);
+
+    // output in the followed directory is not followed itself
+    Follower follower = new Follower(dir, dir, getProperties());
+    assertEquals(3, follower.update());
+    assertEquals(0, follower.update());
+    assertEquals(tokenize(FIRST), read(follower.getOutput(dir.resolve("a.txt"))));
+    assertEquals(tokenize(SECOND),
+        read(follower.getOutput(dir.resolve("b.txt"))));
+    assertFalse(Files.exists(dir.resolve("a.txt.conll.conll")));
+  }
+}
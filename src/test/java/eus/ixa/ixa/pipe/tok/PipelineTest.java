@@ -0,0 +1,130 @@
+package eus.ixa.ixa.pipe.tok;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import eus.ixa.ixa.pipe.ml.tok.Token;
+
+public class PipelineTest {
+
+  private static final String TEXT = "We use cookies.  Accept all cookies?\n"
+      + "The U.S. economy grew 2.5% in (early) 2019... or so they said.\n\n"
+      + "We use cookies.  Accept all cookies?\n"
+      + "Contact us at info@example.com or visit http://www.example.com today\n\n"
+      + "\n"
+      + "We use  cookies.  Accept all cookies?\nThird line\n";
+
+  private static Properties getProperties(boolean noSeg) {
+    Properties properties = TestProperties.get("ptb");
+    properties.setProperty("noseg", String.valueOf(noSeg));
+    // small batches and queue so that the stages interleave
+    properties.setProperty("pipeline", "3");
+    properties.setProperty("pipelineQueue", "2");
+    properties.setProperty("pipelineBatch", "1");
+    return properties;
+  }
+
+  private static BufferedReader reader(String text) {
+    return new BufferedReader(new StringReader(text));
+  }
+
+  private static void assertSameOutput(boolean noSeg, SentenceCache cache)
+      throws IOException {
+    Properties properties = getProperties(noSeg);
+    String conll = new Annotate(reader(TEXT), properties)
+        .tokenizeToCoNLLOffsets();
+    String text = new Annotate(reader(TEXT), properties).tokenizeToText();
+
+    try (Pipeline pipeline = new Pipeline(properties, cache)) {
+      StringWriter writer = new StringWriter();
+      pipeline.tokenizeToCoNLL(reader(TEXT), true, writer);
+      assertEquals(conll, writer.toString());
+
+      writer = new StringWriter();
+      pipeline.tokenizeToText(reader(TEXT), writer);
+      assertEquals(text, writer.toString());
+
+      writer = new StringWriter();
+      Annotate.tokensToCoNLL(pipeline.tokenize(reader(TEXT)), true, writer);
+      assertEquals(conll, writer.toString());
+    }
+  }
+
+  @Test
+  public void testSameOutput() throws IOException {
+    assertSameOutput(false, null);
+  }
+
+  @Test
+  public void testSameOutputNoSeg() throws IOException {
+    assertSameOutput(true, null);
+  }
+
+  @Test
+  public void testSameOutputSentenceCache() throws IOException {
+    SentenceCache cache = new SentenceCache(100);
+    assertSameOutput(false, cache);
+    assertSameOutput(true, cache);
+    assertTrue(cache.getHits() > 0);
+  }
+
+  @Test
+  public void testSameOutputTokensNotInText() throws IOException {
+    String missing = "U.S.http://x.com/a wordhttp://x.com/a%\n"
+        + "He said \"no\" and then ``yes'' to \u00bd of them.\n\n";
+    SentenceCache cache = new SentenceCache(100);
+    for (String text : new String[] { missing + TEXT,
+        missing + "DOTMULTI. or DOTMULTI...\n" }) {
+      for (SentenceCache pipelineCache : new SentenceCache[] { null, cache,
+          cache }) {
+        Properties properties = getProperties(false);
+        String conll = new Annotate(reader(text), properties)
+            .tokenizeToCoNLLOffsets();
+        try (Pipeline pipeline = new Pipeline(properties, pipelineCache)) {
+          StringWriter writer = new StringWriter();
+          pipeline.tokenizeToCoNLL(reader(text), true, writer);
+          assertEquals(conll, writer.toString());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testInterner() throws IOException {
+    TokenInterner interner = new TokenInterner(1024);
+    try (Pipeline pipeline = new Pipeline(getProperties(false), null,
+        interner)) {
+      // the batches are tokenized apart but share the forms
+      String form = null;
+      int count = 0;
+      for (List<Token> sentence : pipeline.tokenize(reader(TEXT))) {
+        for (Token token : sentence) {
+          if (token.getTokenValue().equals("cookies")) {
+            form = form == null ? token.getTokenValue() : form;
+            assertSame(form, token.getTokenValue());
+            count++;
+          }
+        }
+      }
+      assertEquals(6, count);
+    }
+    assertTrue(interner.getHits() > 0);
+  }
+
+  @Test
+  public void testEmptyInput() throws IOException {
+    try (Pipeline pipeline = new Pipeline(getProperties(false), null)) {
+      assertEquals(
+          new Annotate(reader(""), getProperties(false)).tokenize().size(),
+          pipeline.tokenize(reader("")).size());
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package eus.ixa.ixa.pipe.tok;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RequestBatcherTest {
+
+  @Test
+  public void testBatchSize() throws InterruptedException {
+    List<List<Integer>> batches = Collections
+        .synchronizedList(new ArrayList<>());
+    CountDownLatch handled = new CountDownLatch(10);
+    // a long window: batches are handed over because they are full
+    RequestBatcher<Integer> batcher = new RequestBatcher<>(60000, 4,
+        batch -> {
+          batches.add(batch);
+          for (int i = 0; i < batch.size(); i++) {
+            handled.countDown();
+          }
+        });
+    for (int i = 0; i < 8; i++) {
+      batcher.submit(i);
+    }
+    // the last two wait for the window or for the batcher to close
+    batcher.submit(8);
+    batcher.submit(9);
+    Thread.sleep(200);
+    long start = System.nanoTime();
+    batcher.close();
+    assertTrue(handled.await(1, TimeUnit.SECONDS));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+
+    List<Integer> requests = new ArrayList<>();
+    for (List<Integer> batch : batches) {
+      assertTrue(batch.size() <= 4);
+      requests.addAll(batch);
+    }
+    assertEquals(10, requests.size());
+    assertEquals(10, batcher.getRequests());
+    assertTrue(batcher.getBatches() >= 3);
+  }
+
+  @Test
+  public void testWindow() throws InterruptedException {
+    CountDownLatch handled = new CountDownLatch(1);
+    RequestBatcher<String> batcher = new RequestBatcher<>(20, 64,
+        batch -> handled.countDown());
+    try {
+      long start = System.nanoTime();
+      batcher.submit("tweet");
+      // a lone request does not wait much longer than the window
+      assertTrue(handled.await(5, TimeUnit.SECONDS));
+      assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+      assertEquals(1, batcher.getBatches());
+    } finally {
+      batcher.close();
+    }
+  }
+
+  @Test
+  public void testFailingHandler() throws InterruptedException {
+    CountDownLatch handled = new CountDownLatch(2);
+    RequestBatcher<String> batcher = new RequestBatcher<>(1, 1, batch -> {
+      handled.countDown();
+      throw new IllegalStateException("failed");
+    });
+    try {
+      batcher.submit("first");
+      batcher.submit("second");
+      // the batcher keeps going after a failed batch
+      assertTrue(handled.await(5, TimeUnit.SECONDS));
+    } finally {
+      batcher.close();
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package eus.ixa.ixa.pipe.tok;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RequestSchedulerTest {
+
+  @Test
+  public void testClientsTakeTurns() throws Exception {
+    List<String> handled = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch gate = new CountDownLatch(1);
+    CountDownLatch lastGate = new CountDownLatch(1);
+    RequestScheduler<String> scheduler = new RequestScheduler<>(2, 100,
+        request -> {
+          try {
+            if (request.equals("gate")) {
+              gate.await();
+            } else if (request.equals("lastGate")) {
+              lastGate.await();
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          handled.add(request);
+        });
+    scheduler.submit("x", 1, "gate");
+    scheduler.submit("x", 1, "lastGate");
+    // wait for both workers to be busy
+    while (scheduler.getRequests(RequestScheduler.Lane.FAST) < 2) {
+      Thread.sleep(1);
+    }
+    for (int i = 0; i < 3; i++) {
+      scheduler.submit("a", 10, "a" + i);
+    }
+    scheduler.submit("b", 10, "b0");
+    scheduler.submit("c", 10, "c0");
+    scheduler.submit("b", 10, "b1");
+    assertEquals(6, scheduler.getDepth(RequestScheduler.Lane.FAST));
+    // one worker takes the requests in turn while the other waits
+    gate.countDown();
+    while (handled.size() < 7) {
+      Thread.sleep(1);
+    }
+    lastGate.countDown();
+    scheduler.close();
+    assertEquals(Arrays.asList("gate", "a0", "b0", "c0", "a1", "b1", "a2",
+        "lastGate"), handled);
+    assertEquals(8, scheduler.getRequests(RequestScheduler.Lane.FAST));
+    assertEquals(0, scheduler.getDepth(RequestScheduler.Lane.FAST));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOneThread() {
+    // the only worker could be taken by a large request
+    new RequestScheduler<String>(1, 100, request -> {
+    });
+  }
+
+  @Test
+  public void testFastLaneNotBlocked() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch large = new CountDownLatch(1);
+    CountDownLatch small = new CountDownLatch(1);
+    RequestScheduler<String> scheduler = new RequestScheduler<>(2, 100,
+        request -> {
+          if (request.startsWith("large")) {
+            started.countDown();
+            try {
+              large.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          } else {
+            small.countDown();
+          }
+        });
+    scheduler.submit("a", 1000, "large0");
+    scheduler.submit("a", 1000, "large1");
+    // wait for large0 to hold a worker, leaving large1 queued
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    scheduler.submit("b", 10, "small");
+    // one worker is kept for the fast lane
+    assertTrue(small.await(10, TimeUnit.SECONDS));
+    assertEquals(1, scheduler.getDepth(RequestScheduler.Lane.LARGE));
+    large.countDown();
+    scheduler.close();
+    assertEquals(2, scheduler.getRequests(RequestScheduler.Lane.LARGE));
+    assertEquals(1, scheduler.getRequests(RequestScheduler.Lane.FAST));
+  }
+
+  @Test
+  public void testLargeRequestsShareByCharacters() throws Exception {
+    List<String> handled = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch gate = new CountDownLatch(1);
+    // with two threads a single worker takes large requests
+    RequestScheduler<String> scheduler = new RequestScheduler<>(2, 0,
+        request -> {
+          if (request.equals("gate")) {
+            try {
+              gate.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+          handled.add(request);
+        });
+    scheduler.submit("x", 1, "gate");
+    while (scheduler.getRequests(RequestScheduler.Lane.LARGE) == 0) {
+      Thread.sleep(1);
+    }
+    // a huge document waits until its client has earned enough credit
+    scheduler.submit("a", 3 * RequestScheduler.QUANTUM, "huge");
+    for (int i = 0; i < 3; i++) {
+      scheduler.submit("b", RequestScheduler.QUANTUM, "b" + i);
+    }
+    gate.countDown();
+    scheduler.close();
+    assertEquals(Arrays.asList("gate", "b0", "huge", "b1", "b2"), handled);
+  }
+}
@@ -0,0 +1,37 @@
+package eus.ixa.ixa.pipe.tok;
+
+import static org.junit.Assert.*;
+
+import java.util.Properties;
+
+import org.junit.Test;
+
+public class ResultCacheTest {
+
+  @Test
+  public void testKeyDependsOnOptions() {
+    Properties properties = TestProperties.get();
+    String enKey = ResultCache.key("Hello world.", properties);
+    properties.setProperty("language", "es");
+    String esKey = ResultCache.key("Hello world.", properties);
+
+    assertNotEquals(enKey, esKey);
+    assertEquals(esKey, ResultCache.key("Hello world.", properties));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEviction() {
+    ResultCache cache = new ResultCache(600);
+    cache.put("a", "aaa");
+    cache.put("b", "bbb");
+    assertEquals("aaa", cache.get("a"));
+    cache.put("c", "ccc");
+
+    assertNull(cache.get("b"));
+    assertEquals("aaa", cache.get("a"));
+    assertEquals("ccc", cache.get("c"));
+    assertEquals(1, cache.getEvictions());
+    assertEquals(3, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+}
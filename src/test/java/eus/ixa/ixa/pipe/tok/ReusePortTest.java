@@ -0,0 +1,29 @@
+package eus.ixa.ixa.pipe.tok;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import org.junit.Test;
+
+public class ReusePortTest {
+
+  @Test
+  public void testSharePort() throws IOException {
+    assumeTrue(ReusePort.isSupported());
+    try (ServerSocket first = ReusePort.bind(0)) {
+      int port = first.getLocalPort();
+      try (ServerSocket second = ReusePort.bind(port)) {
+        assertEquals(port, second.getLocalPort());
+      }
+      // a plain socket still cannot take the port
+      try (ServerSocket plain = new ServerSocket(port)) {
+        fail("Bound a shared port without SO_REUSEPORT");
+      } catch (IOException e) {
+        // expected
+      }
+    }
+  }
+}
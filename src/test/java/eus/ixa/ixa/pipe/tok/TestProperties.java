@@ -0,0 +1,28 @@
+package eus.ixa.ixa.pipe.tok;
+
+import java.util.Properties;
+
+/**
+ * The tokenizer options shared by the tests: English text, segmented, with
+ * untokenizable characters and hard paragraphs off. A test sets the options
+ * it needs on top.
+ */
+final class TestProperties {
+
+  private TestProperties() {
+  }
+
+  static Properties get() {
+    return get("default");
+  }
+
+  static Properties get(String normalize) {
+    Properties properties = new Properties();
+    properties.setProperty("language", "en");
+    properties.setProperty("normalize", normalize);
+    properties.setProperty("untokenizable", "no");
+    properties.setProperty("hardParagraph", "no");
+    properties.setProperty("noseg", "false");
+    return properties;
+  }
+}
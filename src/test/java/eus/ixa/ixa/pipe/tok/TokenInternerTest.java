@@ -0,0 +1,130 @@
+package eus.ixa.ixa.pipe.tok;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import eus.ixa.ixa.pipe.ml.tok.Token;
+
+public class TokenInternerTest {
+
+  private static final String TEXT = "The cat sat on the mat. The dog sat on "
+      + "the cat, and the cat sat on the dog.\n\nThe end.\n";
+
+  @Test
+  public void testIntern() {
+    TokenInterner interner = new TokenInterner(100);
+    assertEquals(128, interner.getSize());
+
+    String first = new String("the");
+    String second = new String("the");
+    assertSame(first, interner.intern(first));
+    assertSame(first, interner.intern(second));
+    assertEquals(1, interner.getHits());
+    assertEquals(1, interner.getMisses());
+    assertEquals(0.5, interner.getHitRate(), 0.0);
+    assertEquals(TokenInterner.sizeOf(second), interner.getBytesSaved());
+
+    // too long to be worth a slot
+    String url = "http://www.example.com/some/long/path";
+    interner.intern(url);
+    String copy = new String(url);
+    assertSame(copy, interner.intern(copy));
+    assertEquals(1, interner.getMisses());
+  }
+
+  /**
+   * Count the distinct String instances of the token values.
+   */
+  private static int countInstances(List<List<Token>> tokens) {
+    Map<String, List<String>> instances = new HashMap<>();
+    int count = 0;
+    for (List<Token> sentence : tokens) {
+      for (Token token : sentence) {
+        List<String> seen = instances.computeIfAbsent(token.getTokenValue(),
+            value -> new ArrayList<>());
+        boolean found = false;
+        for (String instance : seen) {
+          found |= instance == token.getTokenValue();
+        }
+        if (!found) {
+          seen.add(token.getTokenValue());
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  private static List<List<Token>> tokenize(SentenceCache cache,
+      TokenInterner interner) {
+    return new Annotate(new BufferedReader(new StringReader(TEXT)),
+        TestProperties.get(), cache, interner).tokenize();
+  }
+
+  @Test
+  public void testSharedTokens() {
+    List<List<Token>> plain = tokenize(null, null);
+    TokenInterner interner = new TokenInterner(1024);
+    List<List<Token>> interned = tokenize(null, interner);
+
+    Set<String> forms = new HashSet<>();
+    for (int i = 0; i < plain.size(); i++) {
+      for (int j = 0; j < plain.get(i).size(); j++) {
+        Token token = plain.get(i).get(j);
+        Token internedToken = interned.get(i).get(j);
+        assertEquals(token.getTokenValue(), internedToken.getTokenValue());
+        assertEquals(token.startOffset(), internedToken.startOffset());
+        assertEquals(token.tokenLength(), internedToken.tokenLength());
+        forms.add(token.getTokenValue());
+      }
+    }
+    // one instance per distinct form
+    assertEquals(forms.size(), countInstances(interned));
+    assertTrue(countInstances(plain) > countInstances(interned));
+    assertTrue(interner.getBytesSaved() > 0);
+
+    // cached sentences share the interned forms too
+    SentenceCache cache = new SentenceCache(100);
+    List<List<Token>> cached = tokenize(cache, interner);
+    cached.addAll(tokenize(cache, interner));
+    assertEquals(countInstances(interned), countInstances(cached));
+  }
+
+  @Test
+  public void testConcurrentIntern() throws Exception {
+    TokenInterner interner = new TokenInterner(16);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        results.add(executor.submit(() -> {
+          boolean equal = true;
+          for (int i = 0; i < 10000; i++) {
+            String form = "w" + (i % 50);
+            equal &= interner.intern(form).equals(form);
+          }
+          return equal;
+        }));
+      }
+      for (Future<Boolean> result : results) {
+        assertTrue(result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(40000, interner.getHits() + interner.getMisses());
+  }
+}
@@ -0,0 +1,87 @@
+package eus.ixa.ixa.pipe.tok;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+
+import org.junit.Test;
+
+import eus.ixa.ixa.pipe.ml.tok.RuleBasedSegmenter;
+import eus.ixa.ixa.pipe.ml.tok.Token;
+
+public class TokenWriterTest {
+
+  private static final String TEXT = "\n\nWe use cookies.  Accept all cookies?\n"
+      + "The U.S. economy grew 2.5% in (early) 2019... or so they said.\n\n"
+      + "Contact us at info@example.com or visit http://www.example.com today\n\n"
+      + "Bye now.\n\n";
+
+  private static List<List<Token>> tokenize(String text) {
+    return new Annotate(new BufferedReader(new StringReader(text)),
+        TestProperties.get()).tokenize();
+  }
+
+  /**
+   * The rendering used before the token writer.
+   */
+  private static String legacyCoNLL(List<List<Token>> tokens,
+      boolean offsets) {
+    StringBuilder sb = new StringBuilder();
+    for (List<Token> sentence : tokens) {
+      for (Token token : sentence) {
+        String value = token.getTokenValue();
+        if (value.equals(RuleBasedSegmenter.PARAGRAPH)) {
+          value = "*<P>*";
+        }
+        sb.append(value.trim());
+        if (offsets) {
+          sb.append(" ").append(token.startOffset()).append(" ")
+              .append(token.tokenLength());
+        }
+        sb.append("\n");
+      }
+      sb.append("\n");
+    }
+    return sb.toString();
+  }
+
+  private static String legacyText(List<List<Token>> tokens) {
+    StringBuilder sb = new StringBuilder();
+    for (List<Token> sentence : tokens) {
+      for (Token token : sentence) {
+        String value = token.getTokenValue();
+        if (value.equals(RuleBasedSegmenter.PARAGRAPH)) {
+          sb.append("*<P>*").append("\n");
+        } else {
+          sb.append(value.trim()).append(" ");
+        }
+      }
+      sb.append("\n");
+    }
+    return sb.toString().trim();
+  }
+
+  private static String render(List<List<Token>> tokens, String format)
+      throws IOException {
+    StringWriter writer = new StringWriter();
+    if (format.equals("oneline")) {
+      Annotate.tokensToText(tokens, false, writer);
+    } else {
+      Annotate.tokensToCoNLL(tokens, format.equals("offsets"), writer);
+    }
+    return writer.toString();
+  }
+
+  @Test
+  public void testSameOutput() throws IOException {
+    List<List<Token>> tokens = tokenize(TEXT);
+
+    assertEquals(legacyCoNLL(tokens, false), render(tokens, "conll"));
+    assertEquals(legacyCoNLL(tokens, true), render(tokens, "offsets"));
+    assertEquals(legacyText(tokens), render(tokens, "oneline"));
+  }
+}
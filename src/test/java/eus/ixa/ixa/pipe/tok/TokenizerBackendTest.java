@@ -0,0 +1,207 @@
+package eus.ixa.ixa.pipe.tok;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.Test;
+
+import eus.ixa.ixa.pipe.ml.tok.RuleBasedSegmenter;
+import eus.ixa.ixa.pipe.ml.tok.RuleBasedTokenizer;
+import eus.ixa.ixa.pipe.ml.tok.Token;
+
+/**
+ * Differential tests of the fast tokenizer against the rule-based one.
+ */
+public class TokenizerBackendTest {
+
+  private static final String[] LANGUAGES = { "ca", "de", "en", "es", "eu",
+      "fr", "gl", "it", "nl", "ru" };
+
+  private static final String TEXT = "We use cookies.  Accept all cookies?\n"
+      + "The U.S. economy grew 2.5% in (early) 2019... or so they said.\n\n"
+      + "Sales rose 1,200 units in 2019, up 3% on a well-known basis!!\n"
+      + "Contact us at info@example.com or visit http://www.example.com today.\n\n"
+      + "Dr. Smith met Mr. Jones at St. Mary's; they left at 5 p.m.\n"
+      + "Él llegó a la estación (andén 3) y esperó, ¿verdad?\n";
+
+  private static final String PLAIN = "The meeting ended early, as expected.\n"
+      + "Sales rose 1,200 units in 2019 (up 3%) on a well-known basis!!\n\n"
+      + "Did they agree?  The board met in Zürich on Tuesday.\n";
+
+  /**
+   * Text with tokens which are not in the text, such as URLs joined across
+   * spaces or the placeholder of the rule-based tokenizer for periods.
+   */
+  private static final String MISSING = "U.S.http://x.com/a wordhttp://x.com/a%\n"
+      + "He said \"no\" and then ``yes'' to ½ of them.\n\n"
+      + "Visit www.example.com /a.html now.  DOTMULTI. or DOTMULTI...\n";
+
+  /**
+   * Pieces of the random sentences: words, numbers, punctuation handled by
+   * the fast tokenizer in every position and characters it must leave to the
+   * rule-based tokenizer.
+   */
+  private static final String[] PIECES = { "a", "Z", "é", "Ñ", "ß", "Œ", "0",
+      "9", " ", "  ", "\t", ",", ";", "(", ")", "?", "!", "%", "$", "+", ".",
+      "Mr", "Dr", "etc", "U", "p", "No", "art", "Sr", "1,000", "2019",
+      "well-known", "-", "a-", "2019-2020", "×", "'", ":", "\"", "/",
+      ".." };
+
+  /**
+   * Pieces of half of the random sentences of the second half of the text:
+   * tokens changed by normalization and URLs joined to the words around
+   * them, which are not found in the text, and replacement characters,
+   * dropped by the rule-based tokenizer.
+   */
+  private static final String[] MORE_PIECES = { "...", "``", "''", "“", "”",
+      "«", "»", "‘", "’", "--", "—", "½", "1/2", "don't", "it's", "U.S.",
+      "http://x.com/a", "www.example.com", "info@x.com", "U.S.http://x.com/a",
+      "wordhttp://x.com/a%", "\uFFFD" };
+
+  private static Properties getProperties(String lang, String backend,
+      boolean noSeg) {
+    Properties properties = TestProperties.get();
+    properties.setProperty("language", lang);
+    properties.setProperty("noseg", String.valueOf(noSeg));
+    properties.setProperty("backend", backend);
+    return properties;
+  }
+
+  private static String getCorpus(String lang) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        TokenizerBackendTest.class.getResourceAsStream(
+            "/warmup/" + lang + ".txt"), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        sb.append(line).append("\n");
+      }
+    }
+    return sb.toString();
+  }
+
+  private static String tokenize(String text, Properties properties,
+      SentenceCache cache) {
+    return new Annotate(new BufferedReader(new StringReader(text)),
+        properties, cache).tokenizeToCoNLLOffsets();
+  }
+
+  private static void assertSameTokens(List<List<Token>> expected,
+      List<List<Token>> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).size(), actual.get(i).size());
+      for (int j = 0; j < expected.get(i).size(); j++) {
+        Token token = expected.get(i).get(j);
+        Token other = actual.get(i).get(j);
+        String where = "sentence " + i + " token " + j;
+        assertEquals(where, token.getTokenValue(), other.getTokenValue());
+        assertEquals(where, token.startOffset(), other.startOffset());
+        assertEquals(where, token.tokenLength(), other.tokenLength());
+      }
+    }
+  }
+
+  @Test
+  public void testBackends() {
+    assertTrue(TokenizerBackends.getNames().contains(RuleBasedBackend.NAME));
+    assertTrue(TokenizerBackends.getNames()
+        .contains(FastTokenizerBackend.NAME));
+    assertTrue(TokenizerBackends.get(getProperties("en", "fast",
+        false)) instanceof FastTokenizerBackend);
+    // languages without non-breaking prefixes go to the next backend
+    assertTrue(TokenizerBackends.get(getProperties("xx", "fast,rule",
+        false)) instanceof RuleBasedBackend);
+    try {
+      TokenizerBackends.get(getProperties("en", "jflex", false));
+      fail("Unknown backend accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testSameOutputOnCorpora() throws IOException {
+    for (String lang : LANGUAGES) {
+      for (String text : new String[] { getCorpus(lang), TEXT, PLAIN,
+          MISSING }) {
+        for (boolean noSeg : new boolean[] { false, true }) {
+          String expected = tokenize(text, getProperties(lang, "rule", noSeg),
+              null);
+          Properties fast = getProperties(lang, "fast", noSeg);
+          assertEquals(lang, expected, tokenize(text, fast, null));
+          SentenceCache cache = new SentenceCache(100);
+          assertEquals(lang, expected, tokenize(text, fast, cache));
+          assertEquals(lang, expected, tokenize(text, fast, cache));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFastSentences() throws IOException {
+    int fastSentences = 0;
+    for (String lang : LANGUAGES) {
+      Properties properties = getProperties(lang, "fast", false);
+      String text = getCorpus(lang);
+      String[] sentences = new RuleBasedSegmenter(text, properties)
+          .segmentSentence();
+      FastTokenizer tokenizer = new FastTokenizer(text, properties);
+      assertSameTokens(
+          new RuleBasedTokenizer(text, properties).tokenize(sentences),
+          tokenizer.tokenize(sentences));
+      assertEquals(sentences.length,
+          tokenizer.getFastSentences() + tokenizer.getRuleBasedSentences());
+      fastSentences += tokenizer.getFastSentences();
+    }
+    assertTrue(fastSentences > 0);
+
+    Properties properties = getProperties("en", "fast", false);
+    String[] sentences = new RuleBasedSegmenter(PLAIN, properties)
+        .segmentSentence();
+    FastTokenizer tokenizer = new FastTokenizer(PLAIN, properties);
+    assertSameTokens(
+        new RuleBasedTokenizer(PLAIN, properties).tokenize(sentences),
+        tokenizer.tokenize(sentences));
+    assertEquals(0, tokenizer.getRuleBasedSentences());
+  }
+
+  @Test
+  public void testRandomSentences() {
+    Random random = new Random(42);
+    for (String lang : LANGUAGES) {
+      Properties properties = getProperties(lang, "fast", false);
+      String[] sentences = new String[2000];
+      StringBuilder text = new StringBuilder();
+      for (int i = 0; i < sentences.length; i++) {
+        StringBuilder sentence = new StringBuilder();
+        int length = 1 + random.nextInt(12);
+        for (int j = 0; j < length; j++) {
+          sentence.append(i > sentences.length / 2 && i % 2 == 1
+              && random.nextInt(3) == 0
+              ? MORE_PIECES[random.nextInt(MORE_PIECES.length)]
+              : PIECES[random.nextInt(PIECES.length)]);
+        }
+        if (random.nextBoolean()) {
+          sentence.append('.');
+        }
+        sentences[i] = sentence.toString();
+        text.append(sentences[i]).append("\n");
+      }
+      FastTokenizer tokenizer = new FastTokenizer(text.toString(),
+          properties);
+      assertSameTokens(new RuleBasedTokenizer(text.toString(), properties)
+          .tokenize(sentences), tokenizer.tokenize(sentences));
+      assertTrue(tokenizer.getFastSentences() > sentences.length / 10);
+      assertTrue(tokenizer.getRuleBasedSentences() > 0);
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package eus.ixa.ixa.pipe.tok;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.Test;
+
+import ixa.kaflib.KAFDocument;
+
+public class TokenizerServiceTest {
+
+  private static Properties getProperties() {
+    Properties properties = TestProperties.get();
+    properties.setProperty("outputFormat", "oneline");
+    properties.setProperty("threads", "2");
+    properties.setProperty("queueSize", "2");
+    return properties;
+  }
+
+  @Test
+  public void testTokenize() throws Exception {
+    Properties properties = getProperties();
+    List<String> texts = new ArrayList<>();
+    List<CompletableFuture<String>> results = new ArrayList<>();
+    try (TokenizerService service = new TokenizerService(properties)) {
+      for (int i = 0; i < 20; i++) {
+        String text = "Document number " + i + ". It's (quite) short!\n";
+        texts.add(text);
+        results.add(service.tokenize(text, new Properties()));
+      }
+      for (int i = 0; i < texts.size(); i++) {
+        String expected = new Annotate(
+            new BufferedReader(new StringReader(texts.get(i))), properties)
+                .tokenizeToText();
+        assertEquals(expected, results.get(i).get());
+      }
+    }
+  }
+
+  @Test
+  public void testTokenizeKAF() throws Exception {
+    try (TokenizerService service = new TokenizerService(getProperties())) {
+      KAFDocument kaf = new KAFDocument("es", "v1.naf");
+      kaf.setRawText("Hola, ¿qué tal? Bien.\n");
+
+      assertSame(kaf, service.tokenize(kaf, new Properties()).get());
+      assertEquals(8, kaf.getWFs().size());
+      assertEquals("ixa-pipe-tok-es",
+          kaf.getLinguisticProcessorList().get(0).getName());
+    }
+  }
+
+  @Test
+  public void testCallerExecutorNotShutDown() throws Exception {
+    Properties properties = getProperties();
+    String text = "Hello!\n";
+    ExecutorService executor = TokenizerService.newExecutor(1, 1);
+    try {
+      try (TokenizerService service = new TokenizerService(properties,
+          executor)) {
+        assertEquals(new Annotate(new BufferedReader(new StringReader(text)),
+            properties).tokenizeToText(),
+            service.tokenize(text, new Properties()).get());
+      }
+      assertFalse(executor.isShutdown());
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package eus.ixa.ixa.pipe.tok;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import eus.ixa.ixa.pipe.ml.tok.Token;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class TracingTest {
+
+  private static final String TEXT = "We use cookies. Accept all cookies?\n\n"
+      + "The U.S. economy grew 2.5% in 2019.\n";
+
+  @Test
+  public void testEvents() throws Exception {
+    Path file = Files.createTempFile("tok", ".jfr");
+    List<RecordedEvent> events = new ArrayList<>();
+    try (Recording recording = new Recording()) {
+      recording.enable("eus.ixa.ixa.pipe.tok.Document");
+      recording.enable("eus.ixa.ixa.pipe.tok.Stage");
+      recording.start();
+      new Annotate(new BufferedReader(new StringReader(TEXT)),
+          TestProperties.get()).tokenizeToCoNLL();
+      recording.stop();
+      recording.dump(file);
+      events.addAll(RecordingFile.readAllEvents(file));
+    } finally {
+      Files.delete(file);
+    }
+
+    List<String> stages = new ArrayList<>();
+    RecordedEvent document = null;
+    for (RecordedEvent event : events) {
+      if (event.getEventType().getName().endsWith("Stage")) {
+        stages.add(event.getString("stage"));
+      } else {
+        document = event;
+      }
+    }
+    assertEquals("[segment, tokenize, render]", stages.toString());
+    assertNotNull(document);
+    assertEquals("annotate", document.getString("source"));
+    assertEquals("en", document.getString("language"));
+    assertEquals(TEXT.length(), document.getLong("inputSize"));
+    int tokens = 0;
+    for (List<Token> sentence : new Annotate(
+        new BufferedReader(new StringReader(TEXT)), TestProperties.get())
+            .tokenize()) {
+      tokens += sentence.size();
+    }
+    assertEquals(tokens, document.getInt("tokens"));
+  }
+
+  @Test
+  public void testSlowDocumentLog() throws Exception {
+    Path directory = Files.createTempDirectory("slow");
+    SlowDocumentLog log = new SlowDocumentLog(directory, 100, 10);
+
+    assertFalse(log.record(TEXT, 99, "en", "naf"));
+    assertTrue(log.record(TEXT, 100, "en", "naf"));
+    assertEquals(1, log.getRecorded());
+    List<Path> files = new ArrayList<>();
+    Files.list(directory).forEach(files::add);
+    assertEquals(1, files.size());
+    assertEquals(TEXT.substring(0, 10),
+        new String(Files.readAllBytes(files.get(0)), "UTF-8"));
+    Files.delete(files.get(0));
+    Files.delete(directory);
+  }
+}
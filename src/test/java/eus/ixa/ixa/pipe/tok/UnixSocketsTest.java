@@ -0,0 +1,73 @@
+package eus.ixa.ixa.pipe.tok;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class UnixSocketsTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Before
+  public void setUp() {
+    assumeTrue(UnixSockets.isSupported());
+  }
+
+  private static String read(SocketChannel channel) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+    while (channel.read(buffer) >= 0) {
+    }
+    buffer.flip();
+    return StandardCharsets.UTF_8.decode(buffer).toString();
+  }
+
+  @Test
+  public void testBindAndConnect() throws IOException {
+    String path = folder.getRoot().toPath().resolve("tok.sock").toString();
+    try (ServerSocketChannel server = UnixSockets.bind(path)) {
+      try (SocketChannel client = UnixSockets.connect(path);
+          SocketChannel accepted = server.accept()) {
+        client.write(StandardCharsets.UTF_8.encode("Hello!"));
+        client.shutdownOutput();
+        assertEquals("Hello!", read(accepted));
+      }
+      // a server is listening on the path
+      try {
+        UnixSockets.bind(path).close();
+        fail("bound a socket another server listens on");
+      } catch (IOException e) {
+        assertTrue(e.getMessage(), e.getMessage().contains("listening"));
+      }
+    }
+    // the socket left by the closed server is stale
+    assertTrue(Files.exists(folder.getRoot().toPath().resolve("tok.sock")));
+    UnixSockets.bind(path).close();
+  }
+
+  @Test
+  public void testOtherFileNotRemoved() throws IOException {
+    Path file = folder.newFile("tok.sock").toPath();
+    Files.write(file, "data".getBytes(StandardCharsets.UTF_8));
+    try {
+      UnixSockets.bind(file.toString()).close();
+      fail("bound a socket over a regular file");
+    } catch (FileAlreadyExistsException e) {
+      assertEquals("data",
+          new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    }
+  }
+}